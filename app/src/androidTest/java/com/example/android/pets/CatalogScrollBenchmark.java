@@ -0,0 +1,330 @@
+package com.example.android.pets;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.ViewConfiguration;
+
+import com.example.android.pets.data.BenchmarkResults;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetPhotos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame times and allocations of flinging the catalog list from the first to the last of
+ * {@link #ROWS} rows.
+ * <p>
+ * The catalog's RecyclerView gets a {@link PetCursorAdapter} of its own, filled with generated
+ * pages, so the run neither depends on nor changes the pets on the device, and the activity's
+ * paging doesn't interfere. Frames are timed by Choreographer callbacks: a frame that took
+ * too long pushes the next callback to a later vsync. Reports the frame count, the 50th, 90th
+ * and 99th percentile frame times, the percentage of frames longer than 1.5 refresh periods,
+ * and the bytes allocated per frame and per row scrolled past.
+ * <p>
+ * With photos, {@link #PHOTOS} generated photos are shared by the rows, more than the pool of
+ * decoded thumbnails holds, so the list keeps evicting and decoding thumbnails. The first
+ * fling makes the thumbnails from the photos unless an earlier run left them in the thumbnail
+ * cache; the second one, back from the top, decodes them from that cache.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CatalogScrollBenchmark {
+
+    private static final int ROWS = 10000;
+    private static final int PAGE_SIZE = PetEntry.CATALOG_PAGE_SIZE;
+
+    /** Bound on the flings needed to reach the end, in case the list stops scrolling */
+    private static final int MAX_FLINGS = 1000;
+    private static final long FLING_TIMEOUT_S = 10;
+
+    private static final int PHOTOS = 200;
+    private static final int PHOTO_WIDTH = 1024;
+    private static final int PHOTO_HEIGHT = 768;
+
+    @Rule
+    public final ActivityTestRule<CatalogActivity> mActivityRule =
+            new ActivityTestRule<>(CatalogActivity.class);
+
+    private Instrumentation mInstrumentation;
+    private RecyclerView mRecyclerView;
+    private PetCursorAdapter mAdapter;
+    private String[] mPhotos;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        final CatalogActivity activity = mActivityRule.getActivity();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView = (RecyclerView) activity.findViewById(R.id.recycler_view_pet);
+                // Keeps the activity's window of pages from following the scroll
+                mRecyclerView.clearOnScrollListeners();
+                mAdapter = new PetCursorAdapter(activity,
+                        new PetCursorAdapter.OnPetClickListener() {
+                            @Override
+                            public void onPetClick(long id) {
+                            }
+                        });
+                mRecyclerView.setAdapter(mAdapter);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (mPhotos != null) {
+            Context context = InstrumentationRegistry.getTargetContext();
+            for (String photo : mPhotos) {
+                PetPhotos.getPhotoFile(context, photo).delete();
+            }
+        }
+    }
+
+    @Test
+    public void fling() throws InterruptedException {
+        showRows(null);
+        flingToEnd("catalog.fling");
+    }
+
+    @Test
+    public void flingWithPhotos() throws IOException, InterruptedException {
+        mPhotos = writePhotos();
+        showRows(mPhotos);
+        flingToEnd("catalog.fling_photos");
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView.scrollToPosition(0);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+        flingToEnd("catalog.fling_photos_again");
+    }
+
+    /**
+     * Write {@link #PHOTOS} JPEG photos of different colors to the photo directory, and return
+     * their names.
+     */
+    private static String[] writePhotos() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        Bitmap bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        String[] photos = new String[PHOTOS];
+        for (int i = 0; i < PHOTOS; i++) {
+            bitmap.eraseColor(Color.HSVToColor(new float[]{i * 360f / PHOTOS, 0.5f, 0.9f}));
+            paint.setColor(Color.HSVToColor(new float[]{i * 360f / PHOTOS, 1f, 0.5f}));
+            canvas.drawCircle(PHOTO_WIDTH / 2, PHOTO_HEIGHT / 2, PHOTO_HEIGHT / 3, paint);
+
+            photos[i] = "scroll_benchmark_" + i + ".jpg";
+            OutputStream out = new FileOutputStream(PetPhotos.getPhotoFile(context, photos[i]));
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            } finally {
+                out.close();
+            }
+        }
+        bitmap.recycle();
+        return photos;
+    }
+
+    /**
+     * Show {@link #ROWS} generated pets, a page at a time like the catalog. Pet i shows photo
+     * i % photos.length of the given ones, or none if they are null.
+     */
+    private void showRows(final String[] photos) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int page = 0; page * PAGE_SIZE < ROWS; page++) {
+                    int size = Math.min(PAGE_SIZE, ROWS - page * PAGE_SIZE);
+                    long[] ids = new long[size];
+                    String[] names = new String[size];
+                    String[] breeds = new String[size];
+                    String[] pagePhotos = new String[size];
+                    for (int i = 0; i < size; i++) {
+                        int pet = page * PAGE_SIZE + i;
+                        ids[i] = pet + 1;
+                        names[i] = "Pet " + pet;
+                        breeds[i] = pet % 5 == 0 ? null : "Breed " + pet % 50;
+                        pagePhotos[i] = photos == null ? null : photos[pet % photos.length];
+                    }
+                    mAdapter.submitPage(page, new PetRows(ids, names, breeds, pagePhotos));
+                }
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Fling the list at full speed until its last row shows, and report the frames drawn
+     * meanwhile under the given name.
+     */
+    private void flingToEnd(String name) throws InterruptedException {
+        final int velocity = ViewConfiguration.get(mActivityRule.getActivity())
+                .getScaledMaximumFlingVelocity();
+        final FrameRecorder frames = new FrameRecorder(mRecyclerView);
+        final IdleWaiter idle = new IdleWaiter();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView.addOnScrollListener(idle);
+                frames.start();
+            }
+        });
+
+        long allocatedBefore = BenchmarkResults.allocatedBytes();
+        for (int i = 0; i < MAX_FLINGS && !isAtEnd(); i++) {
+            final CountDownLatch stopped = idle.expectIdle();
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mRecyclerView.fling(0, velocity);
+                }
+            });
+            assertTrue("Fling didn't stop", stopped.await(FLING_TIMEOUT_S, TimeUnit.SECONDS));
+        }
+        long allocated = BenchmarkResults.allocatedBytes() - allocatedBefore;
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                frames.stop();
+                mRecyclerView.removeOnScrollListener(idle);
+            }
+        });
+        assertTrue("Didn't reach the last row", isAtEnd());
+
+        float refreshRate = mActivityRule.getActivity().getWindowManager().getDefaultDisplay()
+                .getRefreshRate();
+        long[] intervals = frames.getIntervals();
+        Arrays.sort(intervals);
+        long jankThreshold = (long) (1.5e9 / refreshRate);
+        int janky = 0;
+        for (long interval : intervals) {
+            if (interval > jankThreshold) {
+                janky++;
+            }
+        }
+        BenchmarkResults.report(name, "frames", intervals.length);
+        BenchmarkResults.report(name, "frame_ms_p50", percentile(intervals, 50) / 1e6);
+        BenchmarkResults.report(name, "frame_ms_p90", percentile(intervals, 90) / 1e6);
+        BenchmarkResults.report(name, "frame_ms_p99", percentile(intervals, 99) / 1e6);
+        BenchmarkResults.report(name, "janky_percent", 100.0 * janky / intervals.length);
+        BenchmarkResults.report(name, "bytes_per_frame", (double) allocated / intervals.length);
+        BenchmarkResults.report(name, "bytes_per_row", (double) allocated / ROWS);
+    }
+
+    private boolean isAtEnd() {
+        final boolean[] atEnd = new boolean[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) mRecyclerView.getLayoutManager();
+                atEnd[0] = layoutManager.findLastCompletelyVisibleItemPosition()
+                        == mAdapter.getItemCount() - 1;
+            }
+        });
+        return atEnd[0];
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    /**
+     * Records the time between consecutive frames while the given list scrolls, on the main
+     * thread.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private final RecyclerView mRecyclerView;
+        private long[] mIntervals = new long[1024];
+        private int mCount;
+        private long mLastFrameNanos;
+        private boolean mRecording;
+
+        FrameRecorder(RecyclerView recyclerView) {
+            mRecyclerView = recyclerView;
+        }
+
+        void start() {
+            mRecording = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRecording = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRecording) {
+                return;
+            }
+            // The pauses between two flings aren't frames of the scroll
+            if (mRecyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                mLastFrameNanos = 0;
+            } else {
+                if (mLastFrameNanos != 0) {
+                    if (mCount == mIntervals.length) {
+                        mIntervals = Arrays.copyOf(mIntervals, mCount * 2);
+                    }
+                    mIntervals[mCount++] = frameTimeNanos - mLastFrameNanos;
+                }
+                mLastFrameNanos = frameTimeNanos;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long[] getIntervals() {
+            return Arrays.copyOf(mIntervals, mCount);
+        }
+    }
+
+    /**
+     * Counts down a latch once the list stops scrolling.
+     */
+    private static class IdleWaiter extends RecyclerView.OnScrollListener {
+        private volatile CountDownLatch mIdle;
+
+        CountDownLatch expectIdle() {
+            mIdle = new CountDownLatch(1);
+            return mIdle;
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE && mIdle != null) {
+                mIdle.countDown();
+            }
+        }
+    }
+}
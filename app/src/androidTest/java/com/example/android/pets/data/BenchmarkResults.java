@@ -0,0 +1,67 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Reports benchmark results to the log and to the instrumentation, which prints them among
+ * the INSTRUMENTATION_STATUS lines of "am instrument -r". Public for the benchmarks of the
+ * catalog's views.
+ */
+public final class BenchmarkResults {
+
+    private static final String LOG_TAG = "PetBenchmark";
+
+    /** Status code of the reports, apart from the codes the test runner uses for test events */
+    private static final int REPORT_CODE = 2;
+
+    /**
+     * One run of a measured operation.
+     */
+    interface Operation {
+        void run(int iteration);
+    }
+
+    private BenchmarkResults() {
+    }
+
+    /**
+     * Run the given operation the given number of times and report its ops_per_s and
+     * bytes_per_op under the given name. Allocations are counted by the runtime for the whole
+     * process, so they include any background thread of the code under test.
+     */
+    static void measure(String name, int iterations, Operation operation) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run(i);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        report(name, "ops_per_s", iterations * 1e9 / elapsedNanos);
+        report(name, "bytes_per_op", (double) allocated / iterations);
+    }
+
+    /**
+     * Report the given value of the given metric of the given benchmark.
+     */
+    public static void report(String benchmark, String metric, double value) {
+        Log.i(LOG_TAG, benchmark + " " + metric + ": "
+                + String.format(Locale.US, "%.1f", value));
+        Bundle status = new Bundle();
+        status.putDouble(benchmark + "." + metric, value);
+        InstrumentationRegistry.getInstrumentation().sendStatus(REPORT_CODE, status);
+    }
+
+    /**
+     * Return the bytes allocated so far by the whole process.
+     */
+    public static long allocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.BenchmarkResults.Operation;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link PetProvider#bulkInsert}, which writes all its rows in one transaction and sends one
+ * notification, against as many calls to {@link PetProvider#insert}, which commit and notify
+ * once per row.
+ * <p>
+ * Every variant inserts the same {@link #ROWS} pets, built before the measurement. One op is
+ * one pet for the single inserts and one batch for the bulk inserts, so a bulk insert's
+ * ops_per_s times its batch size gives the pets per second it reaches.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetBulkInsertBenchmark {
+
+    /** Pets inserted by every variant */
+    private static final int ROWS = 10000;
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+    private TestDataContext mContext;
+    private PetProvider mProvider;
+    private ContentValues[] mValues;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(),
+                "bulk_insert_benchmark");
+        mProvider = PetFixtures.newProvider(mContext);
+        mValues = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            mValues[i] = PetFixtures.values(i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void insert() {
+        BenchmarkResults.measure("provider.insert", ROWS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                mProvider.insert(PetEntry.CONTENT_URI, mValues[iteration]);
+            }
+        });
+        assertEquals(ROWS, countPets());
+    }
+
+    @Test
+    public void bulkInsert() {
+        int expected = 0;
+        for (final int batchSize : BATCH_SIZES) {
+            final ContentValues[][] batches = new ContentValues[ROWS / batchSize][];
+            for (int i = 0; i < batches.length; i++) {
+                batches[i] = new ContentValues[batchSize];
+                System.arraycopy(mValues, i * batchSize, batches[i], 0, batchSize);
+            }
+            BenchmarkResults.measure("provider.bulk_insert_" + batchSize, batches.length,
+                    new Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            assertEquals(batchSize,
+                                    mProvider.bulkInsert(PetEntry.CONTENT_URI,
+                                            batches[iteration]));
+                        }
+                    });
+            expected += ROWS;
+            assertEquals(expected, countPets());
+        }
+    }
+
+    private int countPets() {
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[]{PetEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Incremental sync through the change journal against an in-process server, which pulls the
+ * changes since its last pull, applies them to its copy of the pets and acknowledges them.
+ * The delta a pull sends has to follow the number of pets that changed, whatever the size of
+ * the table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetChangeSyncTest {
+
+    private static final int SMALL_TABLE = 1000;
+    private static final int LARGE_TABLE = 20000;
+    private static final int FILL_BATCH_SIZE = 1000;
+
+    //pets updated, inserted and deleted by makeChanges()
+    private static final int UPDATES = 5;
+    private static final int INSERTS = 3;
+    private static final int DELETES = 2;
+    private static final int CHANGES = UPDATES + INSERTS + DELETES;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TestDataContext mContext;
+    private PetProvider mProvider;
+    private MockSyncServer mServer;
+
+    //fixture index of the next pet inserted
+    private int mNextPet;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), "sync");
+        mProvider = PetFixtures.newProvider(mContext);
+        mServer = new MockSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void firstSyncCopiesEveryPet() {
+        insertPets(SMALL_TABLE);
+
+        mServer.sync(mProvider);
+
+        assertEquals(SMALL_TABLE, mServer.getDeltaRows());
+        assertEquals(queryPets(), mServer.getPets());
+    }
+
+    @Test
+    public void deltaFollowsChangesNotTableSize() {
+        insertPets(SMALL_TABLE);
+        mServer.sync(mProvider);
+        makeChanges(1);
+        mServer.sync(mProvider);
+        int smallRows = mServer.getDeltaRows();
+        long smallBytes = mServer.getDeltaBytes();
+        assertEquals(queryPets(), mServer.getPets());
+
+        insertPets(LARGE_TABLE - SMALL_TABLE);
+        mServer.sync(mProvider);
+        makeChanges(SMALL_TABLE / 2);
+        mServer.sync(mProvider);
+        assertEquals(queryPets(), mServer.getPets());
+
+        // Twenty times the pets, the same delta
+        assertEquals(CHANGES, smallRows);
+        assertEquals(CHANGES, mServer.getDeltaRows());
+        assertTrue(smallBytes + " then " + mServer.getDeltaBytes(),
+                mServer.getDeltaBytes() <= 2 * smallBytes);
+    }
+
+    @Test
+    public void repeatedUpdatesOfOnePetSendOneRow() {
+        insertPets(SMALL_TABLE);
+        mServer.sync(mProvider);
+
+        Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        for (int i = 0; i < 10; i++) {
+            mProvider.update(petUri, PetFixtures.values(SMALL_TABLE + i), null, null);
+        }
+        mServer.sync(mProvider);
+
+        assertEquals(1, mServer.getDeltaRows());
+        assertEquals(queryPets(), mServer.getPets());
+    }
+
+    @Test
+    public void petInsertedAndDeletedBetweenSyncsIsNotSent() {
+        insertPets(SMALL_TABLE);
+        mServer.sync(mProvider);
+
+        Uri petUri = mProvider.insert(PetEntry.CONTENT_URI, PetFixtures.values(mNextPet++));
+        mProvider.delete(petUri, null, null);
+        mServer.sync(mProvider);
+
+        assertEquals(0, mServer.getDeltaRows());
+        assertEquals(queryPets(), mServer.getPets());
+    }
+
+    @Test
+    public void deleteAllIsSentAsOneRow() {
+        insertPets(SMALL_TABLE);
+        mServer.sync(mProvider);
+
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+        insertPets(2);
+        mServer.sync(mProvider);
+
+        // The delete all, then the two new pets
+        assertEquals(3, mServer.getDeltaRows());
+        assertEquals(2, mServer.getPets().size());
+        assertEquals(queryPets(), mServer.getPets());
+    }
+
+    @Test
+    public void acknowledgedChangesAreDropped() {
+        insertPets(SMALL_TABLE);
+        mServer.sync(mProvider);
+
+        mServer.sync(mProvider);
+        assertEquals(0, mServer.getDeltaRows());
+        try {
+            mProvider.query(PetChangeEntry.buildChangesUri(0), null, null, null, null);
+            fail("Pulled changes that were acknowledged");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void insertPets(int count) {
+        PetFixtures.insertPets(mProvider, mNextPet, count, FILL_BATCH_SIZE);
+        mNextPet += count;
+    }
+
+    /**
+     * Update, insert and delete {@link #CHANGES} pets, starting with the pet of the given _id,
+     * which must not have been changed before.
+     */
+    private void makeChanges(long firstId) {
+        for (int i = 0; i < UPDATES; i++) {
+            mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, firstId + i),
+                    PetFixtures.values(mNextPet + i), null, null);
+        }
+        insertPets(INSERTS);
+        for (int i = 0; i < DELETES; i++) {
+            assertEquals(1, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                    firstId + UPDATES + i), null, null));
+        }
+    }
+
+    /**
+     * Return every pet of the provider, by _id, in the server's encoding.
+     */
+    private Map<Long, String> queryPets() {
+        Map<Long, String> pets = new TreeMap<>();
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                pets.put(cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)),
+                        MockSyncServer.encode(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Sync server keeping its copy of the pets in memory. It only ever pulls from the last
+     * change it received, and acknowledges what it pulled right away.
+     */
+    static final class MockSyncServer {
+
+        private final TreeMap<Long, String> mPets = new TreeMap<>();
+        private long mLastSequence;
+        private int mDeltaRows;
+        private long mDeltaBytes;
+
+        /**
+         * Pull the changes since the last sync, apply them and acknowledge them.
+         */
+        void sync(PetProvider provider) {
+            mDeltaRows = 0;
+            mDeltaBytes = 0;
+            long lastSequence = mLastSequence;
+            Cursor cursor = provider.query(PetChangeEntry.buildChangesUri(mLastSequence),
+                    null, null, null, null);
+            try {
+                int sequenceIndex = cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_SEQUENCE);
+                int idIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+                int opIndex = cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_OP);
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(idIndex);
+                    int op = cursor.getInt(opIndex);
+                    String pet = op == PetChangeEntry.OP_INSERT || op == PetChangeEntry.OP_UPDATE
+                            ? encode(cursor) : "";
+                    mDeltaRows++;
+                    // Sequence number, _id and op, then the pet
+                    mDeltaBytes += 8 + 8 + 1 + pet.getBytes(UTF_8).length;
+                    apply(id, op, pet);
+                    lastSequence = Math.max(lastSequence, cursor.getLong(sequenceIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (lastSequence > mLastSequence) {
+                provider.delete(PetChangeEntry.buildAcknowledgeUri(lastSequence), null, null);
+                mLastSequence = lastSequence;
+            }
+        }
+
+        private void apply(long id, int op, String pet) {
+            switch (op) {
+                case PetChangeEntry.OP_INSERT:
+                case PetChangeEntry.OP_UPDATE:
+                    mPets.put(id, pet);
+                    break;
+                case PetChangeEntry.OP_DELETE:
+                    mPets.remove(id);
+                    break;
+                case PetChangeEntry.OP_DELETE_ALL:
+                    // Every pet up to the _id is gone
+                    mPets.headMap(id, true).clear();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown op " + op);
+            }
+        }
+
+        Map<Long, String> getPets() {
+            return mPets;
+        }
+
+        /** Rows sent by the last sync */
+        int getDeltaRows() {
+            return mDeltaRows;
+        }
+
+        /** Bytes the rows of the last sync would take on the wire */
+        long getDeltaBytes() {
+            return mDeltaBytes;
+        }
+
+        /**
+         * Encode the pet columns of the cursor's current row.
+         */
+        static String encode(Cursor cursor) {
+            StringBuilder pet = new StringBuilder();
+            for (String column : new String[]{PetEntry.COLUMN_PET_NAME,
+                    PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                    PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO}) {
+                pet.append(cursor.getString(cursor.getColumnIndexOrThrow(column))).append('\t');
+            }
+            return pet.toString();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Catalog page reads running next to a writer that keeps updating pets, with the rollback
+ * journal, with write-ahead logging, and with write-ahead logging and a reader limit.
+ * Reports the reads and write transactions per second of each.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetDbConcurrencyBenchmark {
+
+    private static final int PETS = 10000;
+    private static final int READERS = 4;
+    private static final long DURATION_MS = 3000;
+    private static final int PAGE_SIZE = 50;
+    //pets updated by each write transaction
+    private static final int WRITE_BATCH = 10;
+
+    /** A catalog page, as PetProvider queries it, from a given name on */
+    private static final String PAGE_QUERY = "SELECT " + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_PHOTO + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+            + PetDbHelper.SELECTION_LIVE + " AND " + PetEntry.COLUMN_PET_NAME + " >= ? ORDER BY "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + " LIMIT " + PAGE_SIZE;
+
+    private TestDataContext mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), "concurrency");
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.delete();
+    }
+
+    @Test
+    public void rollbackJournal() throws InterruptedException {
+        run("rollback_journal", false, PetDbHelper.UNLIMITED_READERS);
+    }
+
+    @Test
+    public void writeAheadLog() throws InterruptedException {
+        run("wal", true, PetDbHelper.UNLIMITED_READERS);
+    }
+
+    @Test
+    public void writeAheadLogTwoReaders() throws InterruptedException {
+        run("wal_2_readers", true, 2);
+    }
+
+    @Test
+    public void writeAheadLogOneReader() throws InterruptedException {
+        run("wal_1_reader", true, 1);
+    }
+
+    /**
+     * Run the readers and the writer against a database with the given options for
+     * {@link #DURATION_MS} and report their throughput under the given name.
+     */
+    private void run(String name, boolean writeAheadLogging, int maxReaders)
+            throws InterruptedException {
+        mDbHelper = new PetDbHelper(mContext, writeAheadLogging,
+                PetDbHelper.DEFAULT_AUTO_CHECKPOINT_PAGES, maxReaders, null);
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        PetFixtures.insertPets(db, PETS);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            readPage(PetFixtures.name(random.nextInt(PETS)));
+                            reads.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "reader " + i));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(READERS);
+                try {
+                    while (!stop.get()) {
+                        updatePets(db, random);
+                        writes.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }, "writer"));
+
+        long start = SystemClock.elapsedRealtime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(DURATION_MS);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (SystemClock.elapsedRealtime() - start) / 1000.0;
+
+        assertNull(failure.get());
+        BenchmarkResults.report(name, "reads_per_s", reads.get() / seconds);
+        BenchmarkResults.report(name, "write_transactions_per_s", writes.get() / seconds);
+        assertTrue(reads.get() > 0 && writes.get() > 0);
+    }
+
+    private void readPage(String from) {
+        mDbHelper.beginRead();
+        try {
+            Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(PAGE_QUERY,
+                    new String[]{from});
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mDbHelper.endRead();
+        }
+    }
+
+    private static void updatePets(SQLiteDatabase db, Random random) {
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < WRITE_BATCH; i++) {
+                db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                                + PetEntry.COLUMN_PET_WEIGHT + " = ? WHERE " + PetEntry._ID + " = ?",
+                        new Object[]{random.nextInt(60) + 1, random.nextInt(PETS) + 1});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades of {@link PetDbHelper} databases from version 1, the schema shipped before any
+ * migration existed, to the current version.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperMigrationTest {
+
+    /**
+     * Conditions of the list, filter and sort queries, each answered by an index since
+     * version 2. Their current form also restricts them to the pets that weren't deleted,
+     * which the partial indexes require.
+     */
+    private static final String[] INDEXED_CONDITIONS = {
+            PetEntry.COLUMN_PET_NAME + " >= ?",
+            PetEntry.COLUMN_PET_BREED + " = ?",
+            PetEntry.COLUMN_PET_GENDER + " = ?",
+            PetEntry.COLUMN_PET_GENDER + " = ? AND " + PetEntry.COLUMN_PET_WEIGHT + " >= ?",
+            PetEntry.COLUMN_PET_WEIGHT + " >= ?"};
+
+    private TestDataContext mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), "migration");
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.delete();
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsPets() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(Arrays.asList("Binx", "Rex", "Toto"), queryStrings(db, "SELECT "
+                + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetDbHelper.SELECTION_LIVE + " ORDER BY " + PetEntry.COLUMN_PET_NAME));
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+    }
+
+    @Test
+    public void upgradeFromVersion1CreatesIndexesAndTriggers() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        Set<String> indexes = new HashSet<>(queryStrings(db,
+                "SELECT name FROM sqlite_master WHERE type = 'index'"));
+        assertTrue(indexes.containsAll(Arrays.asList(
+                "pets_gender_weight_index",
+                "pets_live_name_id_breed_photo_index",
+                "pets_live_weight_index",
+                "pets_live_breed_name_index",
+                "pets_live_gender_name_index",
+                "pets_live_gender_index",
+                "pets_tombstone_index",
+                "pet_weights_pet_time_index")));
+        // Replaced by later steps
+        for (String dropped : new String[]{"pets_name_index", "pets_breed_index",
+                "pets_name_id_breed_index", "pets_weight_index",
+                "pets_live_name_id_breed_index"}) {
+            assertFalse(dropped, indexes.contains(dropped));
+        }
+
+        Set<String> triggers = new HashSet<>(queryStrings(db,
+                "SELECT name FROM sqlite_master WHERE type = 'trigger'"));
+        assertEquals(new HashSet<>(Arrays.asList(
+                "pets_fts_before_update",
+                "pets_fts_before_delete",
+                "pets_fts_after_update",
+                "pets_fts_after_insert",
+                "pets_stats_after_insert",
+                "pets_stats_after_delete",
+                "pets_stats_after_update",
+                "pets_stats_after_soft_delete",
+                "pet_weights_rollup_after_insert",
+                "pets_weight_history_after_insert",
+                "pets_weight_history_after_update",
+                "pets_weight_history_after_delete",
+                "pets_changes_after_insert",
+                "pets_changes_after_update",
+                "pets_changes_after_soft_delete",
+                "pets_changes_after_delete_all")), triggers);
+    }
+
+    @Test
+    public void upgradeFromVersion1IndexesExistingPetsForSearch() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(Arrays.asList("Toto"), searchNames(db, "terr*"));
+        assertEquals(Arrays.asList("Binx"), searchNames(db, "bin*"));
+
+        // The triggers keep the index in sync from then on
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Dorothy");
+        db.update(PetEntry.TABLE_NAME, values, PetEntry.COLUMN_PET_NAME + " = 'Toto'", null);
+        assertEquals(Arrays.asList("Dorothy"), searchNames(db, "terr*"));
+        assertTrue(searchNames(db, "tot*").isEmpty());
+    }
+
+    @Test
+    public void upgradeFromVersion1SummarizesExistingPets() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(Arrays.asList("0:1:0", "1:1:7", "2:1:4"), queryStrings(db, "SELECT "
+                + PetStatsEntry.COLUMN_GENDER + " || ':' || " + PetStatsEntry.COLUMN_COUNT
+                + " || ':' || " + PetStatsEntry.COLUMN_WEIGHT_SUM + " FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME + " ORDER BY " + PetStatsEntry.COLUMN_GENDER));
+        assertEquals(Arrays.asList(":1", "Tabby:1", "Terrier:1"), queryStrings(db, "SELECT "
+                + PetStatsEntry.COLUMN_BREED + " || ':' || " + PetStatsEntry.COLUMN_COUNT
+                + " FROM " + PetStatsEntry.BREED_TABLE_NAME
+                + " ORDER BY " + PetStatsEntry.COLUMN_BREED));
+
+        // Pets with a known weight start their history with it
+        assertEquals(Arrays.asList("4", "7"), queryStrings(db, "SELECT "
+                + PetWeightEntry.COLUMN_WEIGHT + " FROM " + PetWeightEntry.TABLE_NAME
+                + " ORDER BY " + PetWeightEntry.COLUMN_WEIGHT));
+        assertEquals(4, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                + PetWeightEntry.ROLLUP_TABLE_NAME, null));
+
+        // Every pet is journaled, so a first sync is a full copy
+        assertEquals(Arrays.asList("1", "1", "1"), queryStrings(db, "SELECT "
+                + PetChangeEntry.COLUMN_OP + " FROM " + PetChangeEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void everyStepAppliesFromVersion1() {
+        for (int target = 2; target <= PetDbHelper.DATABASE_VERSION; target++) {
+            SQLiteDatabase db = SQLiteDatabase.create(null);
+            try {
+                PetDbHelper.createVersion1(db);
+                insertVersion1Pets(db);
+                db.beginTransaction();
+                try {
+                    for (int version = 2; version <= target; version++) {
+                        PetDbHelper.migrate(db, version);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                assertEquals("version " + target, 3, DatabaseUtils.queryNumEntries(db,
+                        PetEntry.TABLE_NAME));
+                assertEquals("version " + target, "ok",
+                        DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    @Test
+    public void newDatabaseUsesIncrementalAutoVacuum() {
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(PetDbHelper.AUTO_VACUUM_INCREMENTAL, PetDbHelper.getAutoVacuum(db));
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        assertEquals(0, countVacuumPending(db));
+    }
+
+    @Test
+    public void upgradeFromVersion1ConvertsToIncrementalAutoVacuum() {
+        createVersion1Database();
+        SQLiteDatabase version1 = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME, 0,
+                null);
+        try {
+            assertEquals(0, PetDbHelper.getAutoVacuum(version1));
+        } finally {
+            version1.close();
+        }
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(PetDbHelper.AUTO_VACUUM_INCREMENTAL, PetDbHelper.getAutoVacuum(db));
+        // Write-ahead logging is back on after the VACUUM, which only runs once
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        assertEquals(0, countVacuumPending(db));
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME,
+                PetDbHelper.SELECTION_LIVE));
+    }
+
+    @Test
+    public void upgradedSchemaMatchesNewSchema() {
+        createVersion1Database();
+        List<String> upgraded = querySchema(openUpgraded());
+
+        TestDataContext freshContext = new TestDataContext(
+                InstrumentationRegistry.getTargetContext(), "migration_fresh");
+        PetDbHelper fresh = new PetDbHelper(freshContext);
+        try {
+            assertEquals(querySchema(fresh.getWritableDatabase()), upgraded);
+        } finally {
+            fresh.close();
+            freshContext.delete();
+        }
+    }
+
+    @Test
+    public void queryPlansSwitchFromScanToSearch() {
+        createVersion1Database();
+        SQLiteDatabase version1 = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME, 0,
+                null);
+        try {
+            for (String condition : INDEXED_CONDITIONS) {
+                List<String> plan = queryPlan(version1, condition);
+                assertTrue(condition + ": " + plan, hasStep(plan, "SCAN"));
+            }
+        } finally {
+            version1.close();
+        }
+
+        SQLiteDatabase db = openUpgraded();
+        for (String condition : INDEXED_CONDITIONS) {
+            List<String> plan = queryPlan(db, PetDbHelper.SELECTION_LIVE + " AND " + condition);
+            assertFalse(condition + ": " + plan, hasStep(plan, "SCAN"));
+            assertTrue(condition + ": " + plan, hasStep(plan, "SEARCH"));
+        }
+    }
+
+    /**
+     * Create a version 1 database holding a few pets, as the app shipped before any migration.
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME, 0, null);
+        try {
+            PetDbHelper.createVersion1(db);
+            insertVersion1Pets(db);
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void insertVersion1Pets(SQLiteDatabase db) {
+        insertPet(db, "Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        insertPet(db, "Binx", "Tabby", PetEntry.GENDER_FEMALE, 4);
+        insertPet(db, "Rex", null, PetEntry.GENDER_UNKNOWN, 0);
+    }
+
+    private static void insertPet(SQLiteDatabase db, String name, String breed, int gender,
+                                  int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+    }
+
+    private static long countVacuumPending(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, PetDbHelper.META_TABLE_NAME, "key = ?",
+                new String[]{PetDbHelper.META_KEY_VACUUM_PENDING});
+    }
+
+    private SQLiteDatabase openUpgraded() {
+        mDbHelper = new PetDbHelper(mContext);
+        return mDbHelper.getWritableDatabase();
+    }
+
+    private static List<String> searchNames(SQLiteDatabase db, String match) {
+        return queryStrings(db, "SELECT " + PetEntry.COLUMN_PET_NAME + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " IN (SELECT docid FROM "
+                + PetEntry.FTS_TABLE_NAME + " WHERE " + PetEntry.FTS_TABLE_NAME + " MATCH ?)",
+                match);
+    }
+
+    private static List<String> querySchema(SQLiteDatabase db) {
+        return queryStrings(db, "SELECT type || ' ' || name || ' ' || IFNULL(sql, '')"
+                + " FROM sqlite_master ORDER BY type, name");
+    }
+
+    /**
+     * Return the steps of the plan of a list query with the given condition.
+     */
+    private static List<String> queryPlan(SQLiteDatabase db, String condition) {
+        String[] args = new String[condition.length() - condition.replace("?", "").length()];
+        Arrays.fill(args, "1");
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + condition + " LIMIT 50", args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Return true if a step of the given plan reads the pets table the given way.
+     */
+    private static boolean hasStep(List<String> plan, String access) {
+        for (String step : plan) {
+            if (step.startsWith(access)
+                    && Arrays.asList(step.split(" ")).contains(PetEntry.TABLE_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> queryStrings(SQLiteDatabase db, String sql, String... args) {
+        List<String> values = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+}
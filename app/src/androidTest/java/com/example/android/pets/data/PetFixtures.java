@@ -0,0 +1,118 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Pets for tests and benchmarks. Pet i always gets the same values, and neighbouring pets
+ * differ in name, breed, gender and weight, so every index sees a spread of keys.
+ */
+final class PetFixtures {
+
+    static final String[] NAMES = {"Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper",
+            "Daisy", "Milo", "Lola", "Rocky", "Sadie", "Toby", "Molly", "Tucker", "Zoe"};
+    static final String[] BREEDS = {"Terrier", "Tabby", "Beagle", "Siamese", "Poodle",
+            "Persian", "Boxer", "Maine Coon", null};
+    static final int[] GENDERS = {PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE,
+            PetEntry.GENDER_FEMALE};
+
+    private PetFixtures() {
+    }
+
+    static String name(int i) {
+        return NAMES[i % NAMES.length] + " " + i;
+    }
+
+    static String breed(int i) {
+        return BREEDS[i % BREEDS.length];
+    }
+
+    static int gender(int i) {
+        return GENDERS[i % GENDERS.length];
+    }
+
+    static int weight(int i) {
+        return (i * 7) % 60 + 1;
+    }
+
+    /**
+     * Return the values of pet i, as inserted through the provider.
+     */
+    static ContentValues values(int i) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name(i));
+        values.put(PetEntry.COLUMN_PET_BREED, breed(i));
+        values.put(PetEntry.COLUMN_PET_GENDER, gender(i));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight(i));
+        return values;
+    }
+
+    /**
+     * Return a provider keeping its database and photos in the given context. Call
+     * {@link PetProvider#shutdown()} once done with it.
+     */
+    static PetProvider newProvider(Context context) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+        PetProvider provider = new PetProvider();
+        provider.attachInfo(context, info);
+        return provider;
+    }
+
+    /**
+     * Insert pets first to first + count - 1 through the provider, in bulk inserts of the
+     * given size.
+     */
+    static void insertPets(PetProvider provider, int first, int count, int batchSize) {
+        for (int start = first; start < first + count; start += batchSize) {
+            int size = Math.min(batchSize, first + count - start);
+            ContentValues[] batch = new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = values(start + i);
+            }
+            provider.bulkInsert(PetEntry.CONTENT_URI, batch);
+        }
+    }
+
+    /**
+     * Insert pets 0 to count - 1 straight into the database, in a single transaction.
+     */
+    static void insertPets(SQLiteDatabase db, int count) {
+        insertPets(db, 0, count);
+    }
+
+    /**
+     * Insert pets first to first + count - 1 straight into the database, in a single
+     * transaction.
+     */
+    static void insertPets(SQLiteDatabase db, int first, int count) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                + ") VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = first; i < first + count; i++) {
+                insert.bindString(1, name(i));
+                String breed = breed(i);
+                if (breed == null) {
+                    insert.bindNull(2);
+                } else {
+                    insert.bindString(2, breed);
+                }
+                insert.bindLong(3, gender(i));
+                insert.bindLong(4, weight(i));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+}
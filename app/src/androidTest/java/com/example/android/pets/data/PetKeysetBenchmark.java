@@ -0,0 +1,166 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+
+import com.example.android.pets.data.BenchmarkResults.Operation;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetListOptions;
+import com.example.android.pets.data.PetContract.PetSlowQueryEntry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Keyset pagination of the catalog over 100k pets, for every sort order with and without the
+ * gender and breed filters. Each combination walks {@link #PAGES} pages the way the catalog
+ * does, reporting ops_per_s and bytes_per_op per page, and checks that the page query
+ * searches an index instead of scanning the table.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class PetKeysetBenchmark {
+
+    private static final int PETS = 100000;
+    private static final int FILL_BATCH_SIZE = 1000;
+    private static final int PAGES = 200;
+
+    /** A breed only found among male pets of {@link PetFixtures} */
+    private static final String BREED = "Tabby";
+
+    private static TestDataContext sContext;
+    private static PetProvider sProvider;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> options() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (String sort : new String[]{PetEntry.SORT_ID, PetEntry.SORT_NAME,
+                PetEntry.SORT_WEIGHT}) {
+            for (int gender : new int[]{PetListOptions.ANY_GENDER, PetEntry.GENDER_MALE}) {
+                for (String breed : new String[]{null, BREED}) {
+                    PetListOptions options = PetListOptions.DEFAULT.withSort(sort)
+                            .withGender(gender).withBreed(breed);
+                    String name = "keyset_" + sort
+                            + (gender == PetListOptions.ANY_GENDER ? "" : "_gender")
+                            + (breed == null ? "" : "_breed");
+                    parameters.add(new Object[]{name, options});
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private final String mName;
+    private final PetListOptions mOptions;
+
+    //_id and key of the last pet of the last page read
+    private long mAfterId;
+    private String mAfterKey;
+
+    public PetKeysetBenchmark(String name, PetListOptions options) {
+        mName = name;
+        mOptions = options;
+    }
+
+    @BeforeClass
+    public static void setUpProvider() {
+        sContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), "keyset");
+        sProvider = PetFixtures.newProvider(sContext);
+        PetFixtures.insertPets(sProvider, 0, PETS, FILL_BATCH_SIZE);
+    }
+
+    @AfterClass
+    public static void tearDownProvider() {
+        sProvider.shutdown();
+        sContext.delete();
+    }
+
+    @Test
+    public void pages() {
+        // The first page of a sorted list has no key to seek to, so check the second one
+        readPage();
+        List<String> plan = explainNextPage();
+        assertFalse(mName + ": " + plan, hasStep(plan, "SCAN"));
+        assertTrue(mName + ": " + plan, hasStep(plan, "SEARCH"));
+
+        mAfterId = 0;
+        mAfterKey = null;
+        BenchmarkResults.measure(mName, PAGES, new Operation() {
+            @Override
+            public void run(int iteration) {
+                readPage();
+            }
+        });
+    }
+
+    /**
+     * Read the page following {@link #mAfterId} and {@link #mAfterKey}, and move them to its
+     * last pet.
+     */
+    private void readPage() {
+        Cursor cursor = sProvider.query(mOptions.buildPageUri(mAfterId, mAfterKey),
+                mOptions.getProjection(), null, null, null);
+        try {
+            assertEquals(PetEntry.CATALOG_PAGE_SIZE, cursor.getCount());
+            cursor.moveToLast();
+            mAfterId = cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID));
+            String keyColumn = mOptions.getKeyColumn();
+            if (keyColumn != null) {
+                mAfterKey = cursor.getString(cursor.getColumnIndexOrThrow(keyColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the query plan steps of the page following {@link #mAfterId} and
+     * {@link #mAfterKey}, as recorded by the slow query log with a threshold of 0.
+     */
+    private List<String> explainNextPage() {
+        sProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        try {
+            Uri pageUri = mOptions.buildPageUri(mAfterId, mAfterKey);
+            sProvider.query(pageUri, mOptions.getProjection(), null, null, null).close();
+        } finally {
+            sProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, null, null);
+        }
+
+        Cursor log = sProvider.query(PetSlowQueryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(log.moveToFirst());
+            String plan = log.getString(log.getColumnIndexOrThrow(PetSlowQueryEntry.COLUMN_PLAN));
+            return Arrays.asList(plan.split("\n"));
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Return whether the plan accesses the pets table in the given way, "SCAN" or "SEARCH".
+     * Older SQLite versions write "SCAN TABLE pets", newer ones "SCAN pets".
+     */
+    private static boolean hasStep(List<String> plan, String access) {
+        for (String step : plan) {
+            if (step.startsWith(access)
+                    && Arrays.asList(step.split(" ")).contains(PetEntry.TABLE_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+
+import com.example.android.pets.data.BenchmarkResults.Operation;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput and allocations of the main {@link PetProvider} operations on tables of 1k, 100k
+ * and 1M pets: single inserts, point lookups, full scans, filtered scans and delete all.
+ * <p>
+ * Every operation is reported as ops_per_s and bytes_per_op. Allocations are counted by the
+ * runtime for the whole process, so they also include the provider's own background threads.
+ * The table sizes can be replaced with a comma separated list in the "petBenchmarkSizes"
+ * instrumentation argument, for example "-e petBenchmarkSizes 1000" for a quick run.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class PetProviderBenchmark {
+
+    private static final String ARGUMENT_SIZES = "petBenchmarkSizes";
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";
+
+    /** Pets per bulk insert while filling the table */
+    private static final int FILL_BATCH_SIZE = 1000;
+    private static final int INSERTS = 1000;
+    private static final int LOOKUPS = 1000;
+    /** Rows read by all the scans of one size together, so large tables are scanned less often */
+    private static final int SCANNED_ROWS = 1000000;
+    private static final int MIN_SCANS = 3;
+    private static final int MAX_SCANS = 100;
+
+    @Parameterized.Parameters(name = "{0} pets")
+    public static Collection<Object[]> sizes() {
+        String sizes = InstrumentationRegistry.getArguments().getString(ARGUMENT_SIZES,
+                DEFAULT_SIZES);
+        List<Object[]> parameters = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            parameters.add(new Object[]{Integer.parseInt(size.trim())});
+        }
+        return parameters;
+    }
+
+    private final int mSize;
+    private final String mName;
+    private TestDataContext mContext;
+    private PetProvider mProvider;
+
+    public PetProviderBenchmark(int size) {
+        mSize = size;
+        mName = "provider_" + size;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), mName);
+        mProvider = PetFixtures.newProvider(mContext);
+        PetFixtures.insertPets(mProvider, 0, mSize, FILL_BATCH_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void operations() {
+        // Onto the filled table, so they pay for index depth like the catalog would
+        measure("insert", INSERTS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                mProvider.insert(PetEntry.CONTENT_URI, PetFixtures.values(mSize + iteration));
+            }
+        });
+        final int petCount = mSize + INSERTS;
+
+        final Random random = new Random(mSize);
+        measure("point_lookup", LOOKUPS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                long id = random.nextInt(petCount) + 1;
+                assertEquals(1, readAll(mProvider.query(
+                        ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                        null, null, null, null)));
+            }
+        });
+
+        // The argument differs on every scan, so each one misses the query cache and reads
+        // from SQLite. Every pet weighs more than the bound.
+        int scans = Math.max(MIN_SCANS, Math.min(MAX_SCANS, SCANNED_ROWS / petCount));
+        measure("full_scan", scans, new Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(petCount, readAll(mProvider.query(PetEntry.CONTENT_URI, null,
+                        PetEntry.COLUMN_PET_WEIGHT + " > ?",
+                        new String[]{String.valueOf(-iteration)}, null)));
+            }
+        });
+        measure("filtered_scan", scans, new Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mProvider.query(PetEntry.CONTENT_URI.buildUpon()
+                                .appendQueryParameter(PetEntry.QUERY_PARAMETER_BREED,
+                                        PetFixtures.BREEDS[iteration % 2])
+                                .build(), null,
+                        PetEntry.COLUMN_PET_WEIGHT + " > ?",
+                        new String[]{String.valueOf(-iteration)}, null));
+            }
+        });
+
+        measure("delete_all", 1, new Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(petCount, mProvider.delete(PetEntry.CONTENT_URI, null, null));
+            }
+        });
+    }
+
+    /**
+     * Read every column of every row of the given cursor, close it and return its row count.
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void measure(String operation, int iterations, Operation body) {
+        BenchmarkResults.measure(mName + "." + operation, iterations, body);
+    }
+}
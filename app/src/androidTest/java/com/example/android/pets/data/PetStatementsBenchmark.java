@@ -0,0 +1,132 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.BenchmarkResults.Operation;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * The pooled compiled statements of {@link PetStatements} against the ContentValues path of
+ * {@link SQLiteDatabase#insert} and {@link SQLiteDatabase#update}, which compiles the SQL it
+ * builds on every call. Reports ops_per_s and bytes_per_op of single inserts, inserts within
+ * one transaction and updates by _id.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetStatementsBenchmark {
+
+    /** Pets in the table before the measured writes */
+    private static final int PETS = 10000;
+    private static final int INSERTS = 1000;
+    private static final int BATCH_INSERTS = 10000;
+    private static final int UPDATES = 1000;
+
+    private static final String SELECTION_BY_ID = PetEntry._ID + " = ? AND "
+            + PetDbHelper.SELECTION_LIVE;
+
+    private TestDataContext mContext;
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private PetStatements mStatements;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(),
+                "statements_benchmark");
+        mDbHelper = new PetDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        mStatements = new PetStatements(mDbHelper);
+        PetFixtures.insertPets(mDb, PETS);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.delete();
+    }
+
+    @Test
+    public void insert() {
+        BenchmarkResults.measure("statements.insert", INSERTS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                int i = PETS + iteration;
+                mStatements.insert(PetFixtures.name(i), PetFixtures.breed(i),
+                        PetFixtures.gender(i), PetFixtures.weight(i));
+            }
+        });
+        BenchmarkResults.measure("content_values.insert", INSERTS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                mDb.insert(PetEntry.TABLE_NAME, null,
+                        PetFixtures.values(PETS + INSERTS + iteration));
+            }
+        });
+    }
+
+    @Test
+    public void batchInsert() {
+        mDb.beginTransaction();
+        final PetStatements.Inserter inserter = mStatements.newInserter();
+        try {
+            BenchmarkResults.measure("statements.batch_insert", BATCH_INSERTS, new Operation() {
+                @Override
+                public void run(int iteration) {
+                    int i = PETS + iteration;
+                    inserter.insert(PetFixtures.name(i), PetFixtures.breed(i),
+                            PetFixtures.gender(i), PetFixtures.weight(i));
+                }
+            });
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            inserter.close();
+        }
+
+        mDb.beginTransaction();
+        try {
+            BenchmarkResults.measure("content_values.batch_insert", BATCH_INSERTS,
+                    new Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            mDb.insert(PetEntry.TABLE_NAME, null,
+                                    PetFixtures.values(PETS + BATCH_INSERTS + iteration));
+                        }
+                    });
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Test
+    public void updateById() {
+        // Every update moves the pet to another gender, breed and weight, so the indexes and
+        // statistics change as they would in the editor
+        BenchmarkResults.measure("statements.update_by_id", UPDATES, new Operation() {
+            @Override
+            public void run(int iteration) {
+                int i = iteration + 1;
+                mStatements.updateById(iteration % PETS + 1, PetFixtures.name(i),
+                        PetFixtures.breed(i), PetFixtures.gender(i), PetFixtures.weight(i));
+            }
+        });
+        BenchmarkResults.measure("content_values.update_by_id", UPDATES, new Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = PetFixtures.values(iteration + 2);
+                mDb.update(PetEntry.TABLE_NAME, values, SELECTION_BY_ID,
+                        new String[]{String.valueOf(iteration % PETS + 1)});
+            }
+        });
+    }
+}
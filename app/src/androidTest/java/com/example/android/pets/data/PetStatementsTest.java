@@ -0,0 +1,92 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Inserts of {@link PetStatements} failing a constraint, which must return -1 like
+ * {@link SQLiteDatabase#insert} does instead of throwing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStatementsTest {
+
+    private static final String REJECTED_NAME = "Rejected";
+
+    private TestDataContext mContext;
+    private PetDbHelper mDbHelper;
+    private PetStatements mStatements;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDataContext(InstrumentationRegistry.getTargetContext(), "statements");
+        mDbHelper = new PetDbHelper(mContext);
+        mStatements = new PetStatements(mDbHelper);
+
+        // Temporary triggers live on the connection that created them, which is the one all
+        // writes use. RAISE(ABORT) fails the statement with a constraint error.
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.execSQL("CREATE TEMP TRIGGER reject_pet BEFORE INSERT ON " + PetEntry.TABLE_NAME
+                + " WHEN new." + PetEntry.COLUMN_PET_NAME + " = '" + REJECTED_NAME + "' BEGIN "
+                + "SELECT RAISE(ABORT, 'rejected'); END;");
+        db.execSQL("CREATE TEMP TRIGGER reject_weight BEFORE INSERT ON "
+                + PetWeightEntry.TABLE_NAME + " WHEN new." + PetWeightEntry.COLUMN_WEIGHT
+                + " < 0 BEGIN SELECT RAISE(ABORT, 'rejected'); END;");
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.delete();
+    }
+
+    @Test
+    public void insertReturnsMinusOneOnConstraintViolation() {
+        assertEquals(-1, mStatements.insert(REJECTED_NAME, null, PetEntry.GENDER_UNKNOWN, 1));
+        assertTrue(mStatements.insert("Toto", null, PetEntry.GENDER_MALE, 7) > 0);
+        assertEquals(1, countPets());
+    }
+
+    @Test
+    public void inserterReturnsMinusOneOnConstraintViolation() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        PetStatements.Inserter inserter = mStatements.newInserter();
+        db.beginTransaction();
+        try {
+            assertTrue(inserter.insert("Toto", null, PetEntry.GENDER_MALE, 7) > 0);
+            assertEquals(-1, inserter.insert(REJECTED_NAME, null, PetEntry.GENDER_UNKNOWN, 1));
+            // Only the failed statement was rolled back, the batch goes on
+            assertTrue(inserter.insert("Binx", "Tabby", PetEntry.GENDER_FEMALE, 4) > 0);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            inserter.close();
+        }
+        assertEquals(2, countPets());
+    }
+
+    @Test
+    public void insertWeightReturnsMinusOneOnConstraintViolation() {
+        long petId = mStatements.insert("Toto", null, PetEntry.GENDER_MALE, 7);
+
+        assertEquals(-1, mStatements.insertWeight(petId, 1000, -1));
+        assertTrue(mStatements.insertWeight(petId, 1000, 8) > 0);
+    }
+
+    private long countPets() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                PetEntry.TABLE_NAME, PetDbHelper.SELECTION_LIVE);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Context keeping the databases, files and cache of the code under test in a directory of its
+ * own, so tests and benchmarks never touch the app's real pets or photos.
+ */
+final class TestDataContext extends ContextWrapper {
+
+    private final File mRoot;
+
+    TestDataContext(Context base, String name) {
+        super(base);
+        mRoot = new File(base.getCacheDir(), "test_" + name);
+        delete();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return new File(dir("databases"), name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory) {
+        return openOrCreateDatabase(name, mode, factory, null);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY;
+        if ((mode & MODE_ENABLE_WRITE_AHEAD_LOGGING) != 0) {
+            flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        }
+        return SQLiteDatabase.openDatabase(getDatabasePath(name).getPath(), factory, flags,
+                errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return SQLiteDatabase.deleteDatabase(getDatabasePath(name));
+    }
+
+    @Override
+    public File getFilesDir() {
+        return dir("files");
+    }
+
+    @Override
+    public File getCacheDir() {
+        return dir("cache");
+    }
+
+    /**
+     * Delete everything the code under test left behind.
+     */
+    void delete() {
+        deleteRecursively(mRoot);
+    }
+
+    private File dir(String name) {
+        File dir = new File(mRoot, name);
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -15,28 +15,40 @@
  */
 package com.example.android.pets;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.text.TextUtils;
+import android.util.Log;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetContract.PetListOptions;
+import com.example.android.pets.data.PetWriter;
 
+import java.util.ArrayList;
 import java.util.Random;
 
 /**
@@ -45,15 +57,171 @@ import java.util.Random;
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private static int PET_LOADER = 0;
+
+    /** Number of pets loaded per page of the catalog */
+    private static final int PAGE_SIZE = PetEntry.CATALOG_PAGE_SIZE;
+
+    /** Start loading the next page once the user scrolls within this many rows of the end */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    /**
+     * Pages kept loaded on each side of the visible ones. The others have their loader
+     * destroyed and their rows dropped, so memory doesn't grow with how far the user scrolls.
+     */
+    private static final int WINDOW_MARGIN_PAGES = 3;
+
+    /** Request code of the file picker choosing a file to import */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Delay used to coalesce a burst of change notifications into one reload */
+    private static final long RELOAD_DELAY_MS = 100;
+
+    /** Loader argument holding the _id of the last pet of the previous page */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Loader argument holding the sort key of the last pet of the previous page */
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    //saved instance state keys of the list options
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_BREED = "breed";
+    private static final String STATE_PAGE_COUNT = "page_count";
+
     private String LOG_TAG = getClass().getName();
-    private PetDbHelper mHelper;
     private PetCursorAdapter mCursorAdapter;
 
+    /** The first page as last shown, displayed until the first page loads */
+    private CatalogSnapshot mSnapshot;
+
+    //startup trace: when onCreate started, and where the rows last submitted came from
+    private long mCreateUptimeMs;
+    private String mRowsSource;
+    private boolean mFirstRowsLogged;
+    private boolean mFirstPageLogged;
+
+    /**
+     * Snapshots of the pages reached so far, in list order. Page i is loaded by the loader with
+     * id PET_LOADER + i, and is null while that loader hasn't delivered yet, or once the page
+     * left the window of loaded pages.
+     */
+    private final ArrayList<PetRows> mPages = new ArrayList<>();
+
+    /** The after_id each page loader was started with, kept for dropped pages as well */
+    private final ArrayList<Long> mPageAfterIds = new ArrayList<>();
+
+    /** The after_key each page loader was started with, null when sorted by _id */
+    private final ArrayList<String> mPageAfterKeys = new ArrayList<>();
+
+    /** First and last page of the window of loaded pages around the visible rows */
+    private int mWindowFirst = 0;
+    private int mWindowLast = WINDOW_MARGIN_PAGES;
+
+    /** Order and filters of the list */
+    private PetListOptions mOptions = PetListOptions.DEFAULT;
+
+    /** Pages to reload once the pending change notifications have been coalesced */
+    private final ArrayList<Integer> mDirtyPages = new ArrayList<>();
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Shows the progress of the running import as the subtitle of the app bar. Attached to the
+     * import while this instance exists, so a recreated catalog picks the progress up.
+     */
+    private final CatalogImport.Listener mImportListener = new CatalogImport.Listener() {
+        @Override
+        public void onImportProgress(long rowsImported) {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(
+                        getString(R.string.import_progress, rowsImported));
+            }
+        }
+
+        @Override
+        public void onImportFinished() {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(null);
+            }
+        }
+    };
+
+    /** Looks up the sort keys of changed pets, see {@link #findNewPages} */
+    private AsyncQueryHandler mKeyQueryHandler;
+
+    /**
+     * Watches the pets URI and everything below it. Pages are queried without a notification
+     * URI, so instead of every page requerying on any change, only the pages holding the pets
+     * named in the notification are reloaded. In a sorted or filtered list a changed pet can
+     * also move to another page: its new sort key is looked up, and the page whose key range
+     * holds it is reloaded as well.
+     */
+    private final ContentObserver mPetObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] ids = uri == null ? null : PetEntry.getChangedIds(uri);
+            if (ids != null && ids.length == 0) {
+                // Only a weight history changed, no row of the list
+                return;
+            }
+            if (ids != null && mOptions.isDefault()) {
+                for (long id : ids) {
+                    int page = findPage(id);
+                    // A pet that isn't shown yet is new, and new pets get the highest ids,
+                    // so it belongs to the last page.
+                    markPageDirty(page == -1 ? mPages.size() - 1 : page);
+                }
+            } else if (ids != null && ids.length <= PAGE_SIZE) {
+                // The pages the pets were in, then the pages they move to
+                for (long id : ids) {
+                    markPageDirty(findPage(id));
+                }
+                findNewPages(ids);
+            } else {
+                // Any pet may have changed, or too many to look them up
+                for (int page = mWindowFirst; page <= lastPageInWindow(); page++) {
+                    markPageDirty(page);
+                }
+            }
+        }
+    };
+
+    /** Reloads the dirty pages, posted once per burst of change notifications */
+    private final Runnable mReloadDirtyPages = new Runnable() {
+        @Override
+        public void run() {
+            for (int page : mDirtyPages) {
+                // Dropped pages are loaded again anyway once they are back in the window
+                if (page < mPages.size() && isInWindow(page)) {
+                    startPage(page, mPageAfterIds.get(page), mPageAfterKeys.get(page));
+                }
+            }
+            mDirtyPages.clear();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateUptimeMs = SystemClock.uptimeMillis();
+        Trace.beginSection("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        // The page loaders survive a configuration change with the options they were started
+        // with, so the options have to survive as well
+        if (savedInstanceState != null) {
+            mOptions = PetListOptions.DEFAULT
+                    .withSort(savedInstanceState.getString(STATE_SORT, PetEntry.SORT_ID))
+                    .withGender(savedInstanceState.getInt(STATE_GENDER,
+                            PetListOptions.ANY_GENDER))
+                    .withBreed(savedInstanceState.getString(STATE_BREED));
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -64,24 +232,140 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        ListView petListView = (ListView) findViewById(R.id.list_view_pet);
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.recycler_view_pet);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petRecyclerView.setLayoutManager(layoutManager);
 
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 Uri currentPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
                 intent.setData(currentPetUri);
                 startActivity(intent);
             }
         });
+        petRecyclerView.setAdapter(mCursorAdapter);
+
+        // RecyclerView has no empty view, so show it whenever the adapter runs out of rows
+        final View emptyView = findViewById(R.id.empty_view);
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+                logFirstRows();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            private void updateEmptyView() {
+                emptyView.setVisibility(
+                        mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
+
+        // Show the rows of the last launch while the first page loads. The provider opens the
+        // database in the background meanwhile.
+        mSnapshot = new CatalogSnapshot(this);
+        mSnapshot.load(new CatalogSnapshot.Listener() {
+            @Override
+            public void onSnapshotLoaded(PetRows rows) {
+                // The snapshot only holds the first page of the unsorted, unfiltered list
+                if (rows != null && mPages.get(0) == null && mOptions.isDefault()) {
+                    mRowsSource = "snapshot";
+                    mCursorAdapter.submitPage(0, rows);
+                }
+            }
+        });
+
+        mKeyQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (cursor == null) {
+                    return;
+                }
+                try {
+                    // Keys of other options say nothing about the pages shown now
+                    if (cookie.equals(mOptions)) {
+                        markPagesDirty(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mPetObserver);
+        CatalogImport.attach(mImportListener);
+        // The loaders of the pages after the first were retained across the configuration
+        // change as well, still holding the after_id and after_key of the old instance's pages.
+        // This instance starts from the first page alone, so they are dropped and started
+        // again with fresh arguments as the user scrolls.
+        if (savedInstanceState != null) {
+            LoaderManager loaderManager = getLoaderManager();
+            int pageCount = savedInstanceState.getInt(STATE_PAGE_COUNT);
+            for (int page = 1; page < pageCount; page++) {
+                loaderManager.destroyLoader(PET_LOADER + page);
+            }
+        }
+        startPage(0, 0, null);
+
+        // Move the window of loaded pages along with the visible rows, and load pages on
+        // demand as the user gets close to the end of the list. This is also called after a
+        // layout changes the visible rows.
+        petRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (firstVisible == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                moveWindow(mCursorAdapter.getPageOf(firstVisible) - WINDOW_MARGIN_PAGES,
+                        mCursorAdapter.getPageOf(lastVisible) + WINDOW_MARGIN_PAGES);
+                if (lastVisible >= mCursorAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+        Trace.endSection();
+    }
+
+    /**
+     * Log how long after onCreate the list first showed rows, and where they came from.
+     */
+    private void logFirstRows() {
+        if (mFirstRowsLogged || mCursorAdapter.getItemCount() == 0) {
+            return;
+        }
+        mFirstRowsLogged = true;
+        Log.i(LOG_TAG, "Time to first row: " + (SystemClock.uptimeMillis() - mCreateUptimeMs)
+                + " ms, from " + mRowsSource);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mOptions.getSort());
+        outState.putInt(STATE_GENDER, mOptions.getGender());
+        outState.putString(STATE_BREED, mOptions.getBreed());
+        outState.putInt(STATE_PAGE_COUNT, mPages.size());
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mPetObserver);
+        CatalogImport.detach(mImportListener);
+        mKeyQueryHandler.cancelOperation(0);
+        mHandler.removeCallbacks(mReloadDirtyPages);
+        super.onDestroy();
     }
 
     private void insertPet() {
@@ -98,28 +382,47 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     }
 
-    private void deleteAll() {
+    /**
+     * Let the user pick a CSV or JSON file to import pets from.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                "text/csv", "text/comma-separated-values", "text/plain", "application/json"});
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
 
-        /*mHelper = new PetDbHelper(this);
-        SQLiteDatabase db = mHelper.getWritableDatabase();
-        db.delete(PetEntry.TABLE_NAME, null, null);
-        */
-
-        int rowsAffected = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-// Show a toast message depending on whether or not the delete was successful.
-        if (rowsAffected == 0) {
-            // If no rows were deleted, then there was an error with the delete.
-            Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.action_delete_all_entries),
-                    Toast.LENGTH_SHORT).show();
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importPets(data.getData());
+            }
+            return;
         }
-
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
+    /**
+     * Import the pets of the given file in the background. The progress is shown as the
+     * subtitle of the app bar by {@link #mImportListener}.
+     */
+    private void importPets(Uri source) {
+        if (!CatalogImport.start(this, source)) {
+            Toast.makeText(this, R.string.import_running, Toast.LENGTH_SHORT).show();
+        }
+    }
 
+    /**
+     * Delete every pet through the writer queue, showing a toast once done.
+     */
+    private void deleteAll() {
+        PetWriter.getInstance(this).delete(PetEntry.CONTENT_URI,
+                new ToastCallback(this, R.string.action_delete_all_entries,
+                        R.string.editor_delete_pet_failed));
+    }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -129,6 +432,34 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current order and gender filter
+        String sort = mOptions.getSort();
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            menu.findItem(R.id.action_sort_name).setChecked(true);
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            menu.findItem(R.id.action_sort_weight).setChecked(true);
+        } else {
+            menu.findItem(R.id.action_sort_id).setChecked(true);
+        }
+        switch (mOptions.getGender()) {
+            case PetEntry.GENDER_MALE:
+                menu.findItem(R.id.action_gender_male).setChecked(true);
+                break;
+            case PetEntry.GENDER_FEMALE:
+                menu.findItem(R.id.action_gender_female).setChecked(true);
+                break;
+            case PetEntry.GENDER_UNKNOWN:
+                menu.findItem(R.id.action_gender_unknown).setChecked(true);
+                break;
+            default:
+                menu.findItem(R.id.action_gender_any).setChecked(true);
+                break;
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -137,10 +468,38 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                pickImportFile();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAll();
                 return true;
+            case R.id.action_sort_id:
+                setOptions(mOptions.withSort(PetEntry.SORT_ID));
+                return true;
+            case R.id.action_sort_name:
+                setOptions(mOptions.withSort(PetEntry.SORT_NAME));
+                return true;
+            case R.id.action_sort_weight:
+                setOptions(mOptions.withSort(PetEntry.SORT_WEIGHT));
+                return true;
+            case R.id.action_gender_any:
+                setOptions(mOptions.withGender(PetListOptions.ANY_GENDER));
+                return true;
+            case R.id.action_gender_male:
+                setOptions(mOptions.withGender(PetEntry.GENDER_MALE));
+                return true;
+            case R.id.action_gender_female:
+                setOptions(mOptions.withGender(PetEntry.GENDER_FEMALE));
+                return true;
+            case R.id.action_gender_unknown:
+                setOptions(mOptions.withGender(PetEntry.GENDER_UNKNOWN));
+                return true;
+            case R.id.action_filter_breed:
+                showBreedFilterDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
 
@@ -148,14 +507,238 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
 
+    /**
+     * Let the user type the breed to show, an empty breed showing them all.
+     */
+    private void showBreedFilterDialog() {
+        final EditText breedEditText = new EditText(this);
+        breedEditText.setSingleLine();
+        breedEditText.setHint(R.string.filter_breed_hint);
+        breedEditText.setText(mOptions.getBreed());
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_filter_breed);
+        builder.setView(breedEditText);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                setOptions(mOptions.withBreed(breedEditText.getText().toString().trim()));
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Show the list with the given order and filters. Only the first page is queried again;
+     * the rows on screen stay until it arrives. The following pages are then removed, and the
+     * rows of the first page moved, removed or inserted in place.
+     */
+    private void setOptions(PetListOptions options) {
+        if (options.equals(mOptions)) {
+            return;
+        }
+        mOptions = options;
+
+        // Pages after the first are loaded again as the user scrolls
+        for (int page = 1; page < mPages.size(); page++) {
+            getLoaderManager().destroyLoader(PET_LOADER + page);
+        }
+        mHandler.removeCallbacks(mReloadDirtyPages);
+        mDirtyPages.clear();
+        mPages.subList(1, mPages.size()).clear();
+        mPageAfterIds.subList(1, mPageAfterIds.size()).clear();
+        mPageAfterKeys.subList(1, mPageAfterKeys.size()).clear();
+        mPages.set(0, null);
+        mWindowFirst = 0;
+        mWindowLast = WINDOW_MARGIN_PAGES;
+        startPage(0, 0, null);
+    }
+
+    /**
+     * Start (or restart) the loader for the given page, which holds the pets following the one
+     * with the given _id and sort key.
+     */
+    private void startPage(int page, long afterId, String afterKey) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, afterId);
+        args.putString(ARG_AFTER_KEY, afterKey);
+
+        if (page < mPageAfterIds.size()) {
+            mPageAfterIds.set(page, afterId);
+            mPageAfterKeys.set(page, afterKey);
+            getLoaderManager().restartLoader(PET_LOADER + page, args, this);
+        } else {
+            mPageAfterIds.add(afterId);
+            mPageAfterKeys.add(afterKey);
+            mPages.add(null);
+            getLoaderManager().initLoader(PET_LOADER + page, args, this);
+        }
+    }
+
+    /**
+     * Start loading the page after the last loaded one, unless a page is still loading or
+     * the last page showed there are no more pets.
+     */
+    private void loadNextPage() {
+        int lastPage = mPages.size() - 1;
+        PetRows last = mPages.get(lastPage);
+        if (last == null || last.size() < PAGE_SIZE || !isInWindow(lastPage + 1)) {
+            return;
+        }
+        startPage(lastPage + 1, getLastId(last, mPageAfterIds.get(lastPage)),
+                getLastKey(last, mPageAfterKeys.get(lastPage)));
+    }
+
+    /**
+     * Keep the pages from first to last loaded, and drop the others. The pages leaving the
+     * window have their loader destroyed and their rows replaced by placeholders; the pages
+     * entering it are loaded again from their stored after_id and after_key.
+     */
+    private void moveWindow(int first, int last) {
+        first = Math.max(0, first);
+        if (first == mWindowFirst && last == mWindowLast) {
+            return;
+        }
+        int oldFirst = mWindowFirst;
+        int oldLast = Math.min(mWindowLast, mPages.size() - 1);
+        mWindowFirst = first;
+        mWindowLast = last;
+
+        for (int page = oldFirst; page <= oldLast; page++) {
+            if (isInWindow(page)) {
+                continue;
+            }
+            // Also stops a page that is still loading
+            getLoaderManager().destroyLoader(PET_LOADER + page);
+            if (mPages.get(page) != null) {
+                mPages.set(page, null);
+                mCursorAdapter.dropPage(page);
+            }
+        }
+        for (int page = first; page <= Math.min(last, mPages.size() - 1); page++) {
+            if (mPages.get(page) == null
+                    && getLoaderManager().getLoader(PET_LOADER + page) == null) {
+                startPage(page, mPageAfterIds.get(page), mPageAfterKeys.get(page));
+            }
+        }
+    }
+
+    private boolean isInWindow(int page) {
+        return page >= mWindowFirst && page <= mWindowLast;
+    }
+
+    private int lastPageInWindow() {
+        return Math.min(mWindowLast, mPages.size() - 1);
+    }
+
+    /**
+     * Query the given changed pets with the current order and filters in the background, and
+     * then reload the pages of the window whose key range holds them. Pets that don't match the
+     * filters anymore aren't returned; only the page they were in needs a reload. The query
+     * runs on the first page URI, which applies the filters but returns at most a page of pets.
+     */
+    private void findNewPages(long[] ids) {
+        StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+        mKeyQueryHandler.startQuery(0, mOptions, mOptions.buildPageUri(0, null),
+                mOptions.getProjection(), selection.toString(), selectionArgs, null);
+    }
+
+    /**
+     * Mark dirty the pages whose key range holds the pets of the given cursor.
+     */
+    private void markPagesDirty(Cursor cursor) {
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int keyColumnIndex = mOptions.getKeyColumn() == null
+                ? -1 : cursor.getColumnIndexOrThrow(mOptions.getKeyColumn());
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(idColumnIndex);
+            String key = keyColumnIndex == -1 ? null : cursor.getString(keyColumnIndex);
+            for (int page = mWindowFirst; page <= lastPageInWindow(); page++) {
+                // Page i holds the pets after its own start, up to the start of the next page
+                if (isAfterPageStart(page, key, id) && (page + 1 == mPages.size()
+                        || !isAfterPageStart(page + 1, key, id))) {
+                    markPageDirty(page);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether a pet with the given sort key and _id comes after the start of the given
+     * page, that is after the pet the page was started after.
+     */
+    private boolean isAfterPageStart(int page, String key, long id) {
+        if (page == 0) {
+            return true;
+        }
+        int order = mOptions.compareKeys(key, mPageAfterKeys.get(page));
+        return order > 0 || (order == 0 && id > mPageAfterIds.get(page));
+    }
+
+    /**
+     * Schedule the given page for reloading. All pages marked dirty before the reload runs are
+     * reloaded together, so a burst of writes results in a single refresh.
+     */
+    private void markPageDirty(int page) {
+        if (page < 0 || mDirtyPages.contains(page)) {
+            return;
+        }
+        if (mDirtyPages.isEmpty()) {
+            mHandler.postDelayed(mReloadDirtyPages, RELOAD_DELAY_MS);
+        }
+        mDirtyPages.add(page);
+    }
+
+    /**
+     * Return the index of the loaded page showing the pet with the given id, or -1 if it isn't
+     * shown.
+     */
+    private int findPage(long id) {
+        for (int page = mWindowFirst; page <= lastPageInWindow(); page++) {
+            PetRows rows = mPages.get(page);
+            if (rows != null && rows.indexOf(id) != -1) {
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the _id of the last pet in the given page, or the default if the page is empty.
+     */
+    private static long getLastId(PetRows page, long defaultId) {
+        if (page.size() != 0) {
+            return page.ids[page.size() - 1];
+        }
+        return defaultId;
+    }
+
+    /**
+     * Return the sort key of the last pet in the given page, or the default if the page is
+     * empty or sorted by _id.
+     */
+    private static String getLastKey(PetRows page, String defaultKey) {
+        if (page.keys != null && page.size() != 0) {
+            return page.keys[page.size() - 1];
+        }
+        return defaultKey;
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED};
-        return new CursorLoader(this, PetEntry.CONTENT_URI,
-                projection,
+        // The summary URI only holds the columns the list shows
+        Uri pageUri = mOptions.buildPageUri(bundle.getLong(ARG_AFTER_ID),
+                bundle.getString(ARG_AFTER_KEY));
+        return new CursorLoader(this, pageUri,
+                mOptions.getProjection(),
                 null,
                 null,
                 null);
@@ -163,11 +746,47 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mCursorAdapter.swapCursor(data);
+        int page = loader.getId() - PET_LOADER;
+        PetRows rows = PetRows.fromCursor(data, mOptions.getKeyColumn());
+        mPages.set(page, rows);
+
+        // If this page now ends on a different pet (rows were deleted or added), the next page
+        // has to start after the new last pet, or rows would be shown twice or skipped.
+        if (page + 1 < mPages.size()) {
+            long nextAfterId = getLastId(rows, mPageAfterIds.get(page));
+            String nextAfterKey = getLastKey(rows, mPageAfterKeys.get(page));
+            if (nextAfterId != mPageAfterIds.get(page + 1)
+                    || !TextUtils.equals(nextAfterKey, mPageAfterKeys.get(page + 1))) {
+                if (isInWindow(page + 1)) {
+                    startPage(page + 1, nextAfterId, nextAfterKey);
+                } else {
+                    // Loaded from there once it is back in the window
+                    mPageAfterIds.set(page + 1, nextAfterId);
+                    mPageAfterKeys.set(page + 1, nextAfterKey);
+                }
+            }
+        }
+
+        if (page == 0 && mOptions.isDefault()) {
+            mSnapshot.save(rows);
+            if (!mFirstPageLogged) {
+                mFirstPageLogged = true;
+                Log.i(LOG_TAG, "First page loaded "
+                        + (SystemClock.uptimeMillis() - mCreateUptimeMs) + " ms after onCreate");
+            }
+        }
+
+        // Only the rows of this page that differ from what's on screen, including the
+        // snapshot shown at launch, get rebound. The pages of the previous options are
+        // dropped once the first page of the new ones arrives.
+        mRowsSource = "query";
+        mCursorAdapter.setPageCount(mPages.size());
+        mCursorAdapter.submitPage(page, rows);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+        // Pages are copied out of their cursors as soon as they load, so there is nothing
+        // to release here.
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetImporter;
+
+/**
+ * The pet import started from the catalog, kept outside of the activity so that it outlives a
+ * configuration change. The importer only holds this object and the application context; the
+ * catalog instance on screen attaches to it to show the progress, and detaches when it is
+ * destroyed. The result is shown as a toast whether a catalog is attached or not.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+final class CatalogImport implements PetImporter.Listener {
+
+    private static final String LOG_TAG = CatalogImport.class.getSimpleName();
+
+    /**
+     * Told about the progress of the running import.
+     */
+    interface Listener {
+        void onImportProgress(long rowsImported);
+
+        void onImportFinished();
+    }
+
+    //the import in progress, null when none is
+    private static CatalogImport sRunning;
+
+    //the catalog showing the progress, null between two instances
+    private static Listener sListener;
+
+    private final Context mAppContext;
+    private long mRowsImported;
+
+    private CatalogImport(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    /**
+     * Import the pets of the given file in the background, unless an import is already running.
+     * Return whether the import was started.
+     */
+    static boolean start(Context context, Uri source) {
+        if (sRunning != null) {
+            return false;
+        }
+        sRunning = new CatalogImport(context);
+        new PetImporter(context).importFrom(source, sRunning);
+        if (sListener != null) {
+            sListener.onImportProgress(0);
+        }
+        return true;
+    }
+
+    /**
+     * Report the progress to the given listener, starting with the progress so far if an
+     * import is running.
+     */
+    static void attach(Listener listener) {
+        sListener = listener;
+        if (sRunning != null) {
+            listener.onImportProgress(sRunning.mRowsImported);
+        }
+    }
+
+    /**
+     * Stop reporting to the given listener, unless another one was attached since.
+     */
+    static void detach(Listener listener) {
+        if (sListener == listener) {
+            sListener = null;
+        }
+    }
+
+    @Override
+    public void onProgress(long rowsImported, long rowsSkipped) {
+        mRowsImported = rowsImported;
+        if (sListener != null) {
+            sListener.onImportProgress(rowsImported);
+        }
+    }
+
+    @Override
+    public void onComplete(long rowsImported, long rowsSkipped, long rowsPerSecond) {
+        finish();
+        Toast.makeText(mAppContext, mAppContext.getString(R.string.import_complete,
+                rowsImported, rowsSkipped, rowsPerSecond), Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onError(Exception e) {
+        Log.e(LOG_TAG, "Failed to import pets", e);
+        finish();
+        Toast.makeText(mAppContext, R.string.import_failed, Toast.LENGTH_SHORT).show();
+    }
+
+    private void finish() {
+        sRunning = null;
+        if (sListener != null) {
+            sListener.onImportFinished();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The first page of the catalog as it was last shown, kept in a small file so the next launch
+ * can show it before the database is even open. The live query then replaces it, and only the
+ * rows that changed since are rebound.
+ * <p>
+ * The file is only a cache: it lives in the cache directory, and a missing, outdated or
+ * corrupt file is simply ignored.
+ */
+final class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "catalog_snapshot";
+
+    /** Bump it whenever the file format changes, older files are then ignored */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Listener told about the loaded snapshot, on the main thread.
+     */
+    interface Listener {
+        /**
+         * @param rows the saved rows, or null if there is no usable snapshot
+         */
+        void onSnapshotLoaded(PetRows rows);
+    }
+
+    //reads and writes run one at a time, in order, off the main thread
+    private static final Executor sFileExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicFile mFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //rows last loaded or saved, only touched on the file thread
+    private PetRows mSaved;
+
+    CatalogSnapshot(Context context) {
+        mFile = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    /**
+     * Read the snapshot in the background and hand it to the given listener.
+     */
+    void load(final Listener listener) {
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PetRows rows = read();
+                mSaved = rows;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSnapshotLoaded(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Save the given rows in the background, unless they are the ones already saved.
+     */
+    void save(final PetRows rows) {
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mSaved != null && mSaved.contentEquals(rows)) {
+                    return;
+                }
+                if (write(rows)) {
+                    mSaved = rows;
+                }
+            }
+        });
+    }
+
+    private PetRows read() {
+        if (!mFile.getBaseFile().exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            FileInputStream file = mFile.openRead();
+            in = new DataInputStream(new BufferedInputStream(file));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            long[] ids = new long[count];
+            String[] names = new String[count];
+            String[] breeds = new String[count];
+            String[] photos = new String[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readLong();
+                names[i] = in.readUTF();
+                breeds[i] = readOptionalUTF(in);
+                photos[i] = readOptionalUTF(in);
+            }
+            return new PetRows(ids, names, breeds, photos);
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable catalog snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private boolean write(PetRows rows) {
+        FileOutputStream file = null;
+        try {
+            file = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                out.writeLong(rows.ids[i]);
+                out.writeUTF(rows.names[i] == null ? "" : rows.names[i]);
+                writeOptionalUTF(out, rows.breeds[i]);
+                writeOptionalUTF(out, rows.photos[i]);
+            }
+            out.flush();
+            // Replaces the previous snapshot only once the new one is complete
+            mFile.finishWrite(file);
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to save the catalog snapshot", e);
+            if (file != null) {
+                mFile.failWrite(file);
+            }
+            return false;
+        }
+    }
+
+    private static String readOptionalUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Only read from, nothing was lost
+        }
+    }
+}
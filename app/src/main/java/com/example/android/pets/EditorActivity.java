@@ -21,16 +21,25 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
-import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetWriter;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
     private static int EXISTING_PET_LOADER = 1;
+
+    /** Request code of the picker choosing the pet's photo */
+    private static final int REQUEST_PHOTO = 1;
+
+    //saved instance state keys of the photo
+    private static final String STATE_PHOTO = "photo";
+    private static final String STATE_PHOTO_CHANGED = "photo_changed";
+
     private boolean mPetHasChanged = false;
     private String LOG_TAG = getClass().getName();
     /**
@@ -62,6 +71,21 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = 0;
 
+    /**
+     * ImageView showing the thumbnail of the pet's photo
+     */
+    private ImageView mPhotoImageView;
+
+    /**
+     * File name of the pet's photo, null if it has none
+     */
+    private String mPhoto;
+
+    /**
+     * Whether the user chose a photo, which is then saved with the pet
+     */
+    private boolean mPhotoChanged;
+
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View view, MotionEvent motionEvent) {
@@ -70,6 +94,19 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
     };
 
+    /**
+     * Shows a photo copied by {@link EditorPhotoImport}. Attached while this instance exists.
+     */
+    private final EditorPhotoImport.Listener mPhotoListener = new EditorPhotoImport.Listener() {
+        @Override
+        public void onPhotoImported(String photo) {
+            mPhoto = photo;
+            mPhotoChanged = true;
+            mPetHasChanged = true;
+            PetThumbnailLoader.getInstance(EditorActivity.this).load(mPhoto, mPhotoImageView);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -113,6 +150,59 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        mPhotoImageView = (ImageView) findViewById(R.id.editor_pet_photo);
+        findViewById(R.id.button_choose_photo).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                pickPhoto();
+            }
+        });
+        if (savedInstanceState != null) {
+            mPhoto = savedInstanceState.getString(STATE_PHOTO);
+            mPhotoChanged = savedInstanceState.getBoolean(STATE_PHOTO_CHANGED);
+        }
+        PetThumbnailLoader.getInstance(this).load(mPhoto, mPhotoImageView);
+        // After the restored photo, so a copy finished meanwhile replaces it
+        EditorPhotoImport.attach(mPhotoListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        EditorPhotoImport.detach(mPhotoListener, isFinishing());
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PHOTO, mPhoto);
+        outState.putBoolean(STATE_PHOTO_CHANGED, mPhotoChanged);
+    }
+
+    /**
+     * Let the user pick an image to use as the pet's photo.
+     */
+    private void pickPhoto() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("image/*");
+        startActivityForResult(intent, REQUEST_PHOTO);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_PHOTO) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        // The picked image is copied into the app's own photo files, the pet row will only
+        // hold the name of the copy. The copy goes to mPhotoListener of whichever instance is
+        // on screen when it is done.
+        EditorPhotoImport.start(this, data.getData());
     }
 
     /**
@@ -172,7 +262,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // and check if all the fields in the editor are blank
         if (mCurrentPetUri == null &&
                 TextUtils.isEmpty(nameString) && TextUtils.isEmpty(breedString) &&
-                TextUtils.isEmpty(weightString) && mGender == PetEntry.GENDER_UNKNOWN) {
+                TextUtils.isEmpty(weightString) && mGender == PetEntry.GENDER_UNKNOWN
+                && mPhoto == null) {
             // Since no fields were modified, we can return early without creating a new pet.
             // No need to create ContentValues and no need to do any ContentProvider operations.
             return;
@@ -191,40 +282,24 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             weight = Integer.parseInt(weightString);
         }
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        // Only written when it changed, so saving other edits keeps the provider's fast path
+        if (mPhotoChanged) {
+            values.put(PetEntry.COLUMN_PET_PHOTO, mPhoto);
+        }
 
         // Determine if this is a new or existing pet by checking if mCurrentPetUri is null or not
         if (mCurrentPetUri == null) {
-            // This is a NEW pet, so insert a new pet into the provider,
-            // returning the content URI for the new pet.
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // This is a NEW pet, so queue its insertion. The toast is shown once the write
+            // is done, even if the editor has finished by then.
+            PetWriter.getInstance(this).insert(PetEntry.CONTENT_URI, values,
+                    new ToastCallback(this, R.string.editor_insert_pet_successful,
+                            R.string.editor_insert_pet_failed));
         } else {
-            // Otherwise this is an EXISTING pet, so update the pet with content URI: mCurrentPetUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentPetUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Otherwise this is an EXISTING pet, so queue an update of the pet with content URI:
+            // mCurrentPetUri, which already identifies the correct row in the database.
+            PetWriter.getInstance(this).update(mCurrentPetUri, values,
+                    new ToastCallback(this, R.string.editor_update_pet_successful,
+                            R.string.editor_update_pet_failed));
         }
     }
 
@@ -323,7 +398,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetEntry.COLUMN_PET_NAME,
                 PetEntry.COLUMN_PET_BREED,
                 PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT};
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -356,6 +432,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             String breed = cursor.getString(breedColumnIndex);
             int gender = cursor.getInt(genderColumnIndex);
             int weight = cursor.getInt(weightColumnIndex);
+            // A photo the user just chose wins over the saved one
+            if (!mPhotoChanged) {
+                mPhoto = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO));
+                PetThumbnailLoader.getInstance(this).load(mPhoto, mPhotoImageView);
+            }
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
@@ -440,17 +521,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * Perform the deletion of the pet in the database.
      */
     private void deletePet() {
-        int rowsAffected = getContentResolver().delete(mCurrentPetUri, null, null);
-// Show a toast message depending on whether or not the delete was successful.
-        if (rowsAffected == 0) {
-            // If no rows were deleted, then there was an error with the delete.
-            Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                    Toast.LENGTH_SHORT).show();
-        }
+        PetWriter.getInstance(this).delete(mCurrentPetUri,
+                new ToastCallback(this, R.string.editor_delete_pet_successful,
+                        R.string.editor_delete_pet_failed));
         finish();
     }
-}
\ No newline at end of file
+}
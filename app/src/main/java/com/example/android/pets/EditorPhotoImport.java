@@ -0,0 +1,103 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetPhotos;
+
+import java.io.IOException;
+
+/**
+ * The copy of a photo picked in the editor, kept outside of the activity so that its result
+ * reaches the editor instance on screen when the copy finishes, even if the one that started it
+ * was recreated meanwhile. A result arriving between two instances is kept until the next one
+ * attaches.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+final class EditorPhotoImport implements PetPhotos.Callback {
+
+    private static final String LOG_TAG = EditorPhotoImport.class.getSimpleName();
+
+    /**
+     * Told about the copied photo.
+     */
+    interface Listener {
+        void onPhotoImported(String photo);
+    }
+
+    //the latest copy started, until its result has been delivered
+    private static EditorPhotoImport sPending;
+
+    //the editor on screen, null between two instances
+    private static Listener sListener;
+
+    private final Context mAppContext;
+
+    //name of the copy once done, waiting for an editor to attach
+    private String mPhoto;
+
+    private EditorPhotoImport(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    /**
+     * Copy the given image into the app's photo files in the background. A copy still running
+     * is superseded; its file is never referred to and gets swept by the compaction.
+     */
+    static void start(Context context, Uri source) {
+        sPending = new EditorPhotoImport(context);
+        PetPhotos.importPhoto(context, source, sPending);
+    }
+
+    /**
+     * Deliver the result of the copy to the given listener from now on, starting with a result
+     * that arrived while no editor was attached.
+     */
+    static void attach(Listener listener) {
+        sListener = listener;
+        if (sPending != null && sPending.mPhoto != null) {
+            String photo = sPending.mPhoto;
+            sPending = null;
+            listener.onPhotoImported(photo);
+        }
+    }
+
+    /**
+     * Stop delivering to the given listener. When the editor is finishing rather than being
+     * recreated, no other instance will take the result, so the pending copy is dropped.
+     */
+    static void detach(Listener listener, boolean finishing) {
+        if (sListener != listener) {
+            return;
+        }
+        sListener = null;
+        if (finishing) {
+            sPending = null;
+        }
+    }
+
+    @Override
+    public void onPhotoImported(String photo) {
+        if (sPending != this) {
+            return;
+        }
+        if (sListener != null) {
+            sPending = null;
+            sListener.onPhotoImported(photo);
+        } else {
+            mPhoto = photo;
+        }
+    }
+
+    @Override
+    public void onError(IOException e) {
+        Log.e(LOG_TAG, "Failed to copy the photo", e);
+        if (sPending == this) {
+            sPending = null;
+        }
+        Toast.makeText(mAppContext, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+    }
+}
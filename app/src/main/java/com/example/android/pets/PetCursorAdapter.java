@@ -1,44 +1,340 @@
 package com.example.android.pets;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 /**
  * Created by d on 10/31/2017.
+ * <p>
+ * Adapter for the catalog list, made of pages of {@link PetRows} in list order. A page that is
+ * added at the end is inserted as is. A page that is loaded again is diffed with its previous
+ * rows on a background thread, keyed on _id, and only the rows of that page that were inserted,
+ * removed, moved or changed are dispatched to the RecyclerView, at the page's position. Neither
+ * costs more than a page, however long the list is.
+ * <p>
+ * Pages far from the screen can be dropped. They keep their place in the list as blank
+ * placeholder rows until they are submitted again.
  */
 
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.ViewHolder> {
 
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0);
+    /**
+     * Listener told about clicks on a pet of the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    /**
+     * Views of a list item, looked up once when the item view is created.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView breedTextView;
+        final ImageView photoImageView;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.pet_name);
+            breedTextView = (TextView) view.findViewById(R.id.pet_breed);
+            photoImageView = (ImageView) view.findViewById(R.id.pet_photo);
+        }
+    }
+
+    //diffs are computed one at a time, off the main thread
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final OnPetClickListener mListener;
+
+    //text shown for pets without a breed, read once from resources
+    private final String mUnknownBreed;
+
+    //thumbnails are decoded off the main thread, binding only starts the load
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    /**
+     * Rows of a page, null while it is dropped, and the number of changes to it, so results of
+     * outdated diffs are dropped.
+     */
+    private static final class Page {
+        PetRows rows;
+        //rows the page had when it was dropped, shown as placeholders meanwhile
+        int placeholders;
+        int generation;
+
+        Page(PetRows rows) {
+            this.rows = rows;
+        }
+
+        int size() {
+            return rows != null ? rows.size() : placeholders;
+        }
+    }
+
+    //pages currently shown by the list, only touched on the main thread
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    //position of the first row of each page, and the item count as the last entry
+    private int[] mPageStarts = {0};
+
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mListener = listener;
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mThumbnailLoader = PetThumbnailLoader.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given rows as the given page, which must be one of the pages shown or the one
+     * after them. The rows of an existing page are replaced once their diff with the page's
+     * current rows has been computed in the background. Must be called on the main thread.
+     */
+    public void submitPage(final int page, final PetRows newRows) {
+        if (page == mPages.size()) {
+            // A new page at the end has nothing to diff with
+            mPages.add(new Page(newRows));
+            updatePageStarts();
+            notifyItemRangeInserted(mPageStarts[page], newRows.size());
+            return;
+        }
+        final Page target = mPages.get(page);
+        if (target.rows == null) {
+            // Neither do placeholders
+            target.generation++;
+            target.rows = newRows;
+            updatePageStarts();
+            PageUpdateCallback callback = new PageUpdateCallback(mPageStarts[page]);
+            int changed = Math.min(target.placeholders, newRows.size());
+            callback.onChanged(0, changed, null);
+            if (newRows.size() > changed) {
+                callback.onInserted(changed, newRows.size() - changed);
+            } else if (target.placeholders > changed) {
+                callback.onRemoved(changed, target.placeholders - changed);
+            }
+            return;
+        }
+        final int generation = ++target.generation;
+        final PetRows oldRows = target.rows;
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new RowsDiffCallback(oldRows, newRows));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The page was removed, or newer rows were submitted for it meanwhile
+                        // and their diff will apply instead
+                        if (page >= mPages.size() || mPages.get(page) != target
+                                || generation != target.generation) {
+                            return;
+                        }
+                        target.rows = newRows;
+                        updatePageStarts();
+                        result.dispatchUpdatesTo(new PageUpdateCallback(mPageStarts[page]));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replace the rows of the given page with placeholders, releasing them, until the page is
+     * submitted again. Must be called on the main thread.
+     */
+    public void dropPage(int page) {
+        Page target = mPages.get(page);
+        if (target.rows == null) {
+            return;
+        }
+        target.generation++;
+        target.placeholders = target.rows.size();
+        target.rows = null;
+        // Views cached by the RecyclerView mustn't keep showing the released rows
+        notifyItemRangeChanged(mPageStarts[page], target.placeholders);
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Remove the pages from the given one on. Must be called on the main thread.
+     */
+    public void setPageCount(int count) {
+        if (count >= mPages.size()) {
+            return;
+        }
+        int start = mPageStarts[count];
+        int removed = getItemCount() - start;
+        mPages.subList(count, mPages.size()).clear();
+        updatePageStarts();
+        notifyItemRangeRemoved(start, removed);
+    }
+
+    /**
+     * Return the page showing the given position.
+     */
+    public int getPageOf(int position) {
+        int page = Arrays.binarySearch(mPageStarts, 0, mPages.size(), position);
+        if (page < 0) {
+            return -page - 2;
+        }
+        // Empty pages share their start with the page after them
+        while (page + 1 < mPages.size() && mPageStarts[page + 1] == position) {
+            page++;
+        }
+        return page;
+    }
+
+    private void updatePageStarts() {
+        if (mPageStarts.length != mPages.size() + 1) {
+            mPageStarts = new int[mPages.size() + 1];
+        }
+        for (int page = 0; page < mPages.size(); page++) {
+            mPageStarts[page + 1] = mPageStarts[page] + mPages.get(page).size();
+        }
     }
 
-    //inflates a new view for a new item. Does not attach content
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup viewGroup) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, viewGroup, false);
+    public int getItemCount() {
+        return mPageStarts[mPages.size()];
     }
 
-    //populate the current view with data from cursor
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        TextView nameTextView = (TextView) view.findViewById(R.id.pet_name);
-        TextView breedTextView = (TextView) view.findViewById(R.id.pet_breed);
+    public long getItemId(int position) {
+        int page = getPageOf(position);
+        PetRows rows = mPages.get(page).rows;
+        if (rows == null) {
+            // Pet ids are positive, placeholders only need ids of their own
+            return -1 - position;
+        }
+        return rows.ids[position - mPageStarts[page]];
+    }
 
-        String nameText = cursor.getString(cursor.getColumnIndexOrThrow("name"));
-        String breedText = cursor.getString(cursor.getColumnIndexOrThrow("breed"));
+    //inflates a new view for a new item. Does not attach content
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && getItemId(position) > 0) {
+                    mListener.onPetClick(getItemId(position));
+                }
+            }
+        });
+        return holder;
+    }
 
-        nameTextView.setText(nameText);
-        if (!TextUtils.isEmpty(breedText)) {
-            breedTextView.setText(breedText);
+    //populate the item view with data from the snapshot
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        int page = getPageOf(position);
+        PetRows rows = mPages.get(page).rows;
+        if (rows == null) {
+            // Blank until the page is loaded again
+            holder.nameTextView.setText(null);
+            holder.breedTextView.setText(null);
+            mThumbnailLoader.load(null, holder.photoImageView);
+            return;
+        }
+        int row = position - mPageStarts[page];
+        holder.nameTextView.setText(rows.names[row]);
+        String breed = rows.breeds[row];
+        if (!TextUtils.isEmpty(breed)) {
+            holder.breedTextView.setText(breed);
         } else {
-            breedTextView.setText("unknown breed");
+            holder.breedTextView.setText(mUnknownBreed);
+        }
+        mThumbnailLoader.load(rows.photos[row], holder.photoImageView);
+    }
+
+    /**
+     * Dispatches the updates of a page's diff at the position of the page.
+     */
+    private class PageUpdateCallback implements ListUpdateCallback {
+        private final int mStart;
+
+        PageUpdateCallback(int start) {
+            mStart = start;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(mStart + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(mStart + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mStart + fromPosition, mStart + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(mStart + position, count, payload);
+        }
+    }
+
+    /**
+     * Compares two snapshots: rows are the same item if they have the same _id, and unchanged
+     * if their name, breed and photo are equal as well.
+     */
+    private static class RowsDiffCallback extends DiffUtil.Callback {
+        private final PetRows mOld;
+        private final PetRows mNew;
+
+        RowsDiffCallback(PetRows oldRows, PetRows newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.ids[oldItemPosition] == mNew.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return TextUtils.equals(mOld.names[oldItemPosition], mNew.names[newItemPosition])
+                    && TextUtils.equals(mOld.breeds[oldItemPosition], mNew.breeds[newItemPosition])
+                    && TextUtils.equals(mOld.photos[oldItemPosition], mNew.photos[newItemPosition]);
         }
     }
 }
@@ -0,0 +1,106 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the pets shown by the catalog. Rows are copied out of the loader's
+ * cursor once, so they can be diffed on a background thread and bound without touching the
+ * cursor again.
+ */
+final class PetRows {
+
+    static final PetRows EMPTY =
+            new PetRows(new long[0], new String[0], new String[0], new String[0]);
+
+    final long[] ids;
+    final String[] names;
+    final String[] breeds;
+    //photo file names, null for pets without a photo
+    final String[] photos;
+    //page key of each row, null when pages are keyed by _id alone
+    final String[] keys;
+
+    PetRows(long[] ids, String[] names, String[] breeds, String[] photos) {
+        this(ids, names, breeds, photos, null);
+    }
+
+    private PetRows(long[] ids, String[] names, String[] breeds, String[] photos,
+                    String[] keys) {
+        this.ids = ids;
+        this.names = names;
+        this.breeds = breeds;
+        this.photos = photos;
+        this.keys = keys;
+    }
+
+    /**
+     * Copy every row of the given cursor, which must hold the _id, name, breed and photo
+     * columns, and the given key column unless it is null.
+     */
+    static PetRows fromCursor(Cursor cursor, String keyColumn) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        String[] breeds = new String[count];
+        String[] photos = new String[count];
+        String[] keys = keyColumn == null ? null : new String[count];
+
+        // Resolve the columns once for the whole cursor
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int photoColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO);
+        int keyColumnIndex = keyColumn == null ? -1 : cursor.getColumnIndexOrThrow(keyColumn);
+
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(idColumnIndex);
+            names[i] = cursor.getString(nameColumnIndex);
+            breeds[i] = cursor.getString(breedColumnIndex);
+            photos[i] = cursor.getString(photoColumnIndex);
+            if (keys != null) {
+                keys[i] = cursor.getString(keyColumnIndex);
+            }
+        }
+        return new PetRows(ids, names, breeds, photos, keys);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Return whether the given snapshot holds the same pets, in the same order and with the
+     * same names, breeds and photos.
+     */
+    boolean contentEquals(PetRows other) {
+        if (!Arrays.equals(ids, other.ids)) {
+            return false;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (!TextUtils.equals(names[i], other.names[i])
+                    || !TextUtils.equals(breeds[i], other.breeds[i])
+                    || !TextUtils.equals(photos[i], other.photos[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the position of the pet with the given id, or -1 if it isn't in this snapshot.
+     */
+    int indexOf(long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Encoded thumbnails of the pet photos, packed into a single memory-mapped file so a thumbnail
+ * read is a copy out of the page cache instead of opening, reading and closing a file.
+ * <p>
+ * The file is split into fixed-size slots, and a photo can only live in the slot its name
+ * hashes to. Slots are sized for a JPEG of the thumbnail's pixel size, so a density with larger
+ * thumbnails gets larger but fewer slots within the same {@link #FILE_SIZE}. Storing a
+ * thumbnail overwrites whatever the slot held, so the file never grows; a thumbnail that was
+ * pushed out is simply made again from its photo. Each slot starts with the length of its data,
+ * written last, so a slot left half written by a killed process reads as empty.
+ * <p>
+ * Photo names identify one version of an image (see
+ * {@link com.example.android.pets.data.PetPhotos}), so entries never go stale.
+ */
+final class PetThumbnailCache {
+
+    private static final String LOG_TAG = PetThumbnailCache.class.getSimpleName();
+
+    /**
+     * Prefix of the file name, which ends with the slot size. Bump the version whenever the slot
+     * layout changes; files with another name are deleted.
+     */
+    private static final String FILE_PREFIX = "thumbnails_";
+    private static final String FILE_NAME_PREFIX = FILE_PREFIX + "v2_";
+
+    /** Size of the file, whatever the slot size */
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    private static final int MIN_SLOT_SIZE = 8 * 1024;
+    private static final int SLOT_ALIGNMENT = 4 * 1024;
+
+    /**
+     * Bytes per pixel allowed for the encoded thumbnail. A photo at JPEG quality 80 takes up
+     * to about 4 bits per pixel; busier ones are encoded again at a lower quality to fit.
+     */
+    private static final double BYTES_PER_PIXEL = 0.5;
+
+    //slot layout: data length, key length, key, data
+    private static final int MAX_KEY_LENGTH = 63;
+    private static final int KEY_OFFSET = 4 + 1;
+    private static final int DATA_OFFSET = KEY_OFFSET + MAX_KEY_LENGTH;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static PetThumbnailCache sInstance;
+
+    private final int mSlotSize;
+    private final int mSlotCount;
+
+    //null if the file couldn't be mapped, every lookup then misses. Guarded by this
+    private final MappedByteBuffer mBuffer;
+
+    //thumbnails too large for a slot, guarded by this
+    private int mDroppedPuts;
+
+    /**
+     * Return the cache of the thumbnails of the given size, in pixels. The size must be the same
+     * on every call.
+     */
+    static synchronized PetThumbnailCache getInstance(Context context, int thumbnailSize) {
+        if (sInstance == null) {
+            int slotSize = getSlotSize(thumbnailSize);
+            File dir = context.getApplicationContext().getCacheDir();
+            String fileName = FILE_NAME_PREFIX + slotSize;
+            deleteOtherFiles(dir, fileName);
+            sInstance = new PetThumbnailCache(new File(dir, fileName), slotSize);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the size of the slots holding thumbnails of the given size, in pixels.
+     */
+    private static int getSlotSize(int thumbnailSize) {
+        int size = DATA_OFFSET + (int) (thumbnailSize * thumbnailSize * BYTES_PER_PIXEL);
+        size = (size + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+        return Math.max(size, MIN_SLOT_SIZE);
+    }
+
+    /**
+     * Delete the files of older layouts and other slot sizes, such as before a density change.
+     */
+    private static void deleteOtherFiles(File dir, String fileName) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(FILE_PREFIX) && !file.getName().equals(fileName)) {
+                file.delete();
+            }
+        }
+    }
+
+    private PetThumbnailCache(File file, int slotSize) {
+        mSlotSize = slotSize;
+        mSlotCount = FILE_SIZE / slotSize;
+        MappedByteBuffer buffer = null;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // Sparse: slots that were never written take no space on disk
+                long length = (long) mSlotCount * mSlotSize;
+                if (raf.length() != length) {
+                    raf.setLength(length);
+                }
+                // The mapping stays valid once the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Thumbnails won't be cached", e);
+        }
+        mBuffer = buffer;
+    }
+
+    /**
+     * Return the size of the largest thumbnail a slot holds, in bytes.
+     */
+    int getMaxDataLength() {
+        return mSlotSize - DATA_OFFSET;
+    }
+
+    /**
+     * Return the number of thumbnails that weren't stored because they didn't fit a slot.
+     */
+    synchronized int getDroppedPuts() {
+        return mDroppedPuts;
+    }
+
+    /**
+     * Return the thumbnail stored for the given photo, or null if there is none.
+     */
+    synchronized byte[] get(String photo) {
+        byte[] key = photo.getBytes(UTF_8);
+        if (mBuffer == null || key.length > MAX_KEY_LENGTH) {
+            return null;
+        }
+        int slot = slotOf(photo);
+        int length = mBuffer.getInt(slot);
+        if (length <= 0 || length > getMaxDataLength() || !hasKey(slot, key)) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(slot + DATA_OFFSET);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Store the thumbnail of the given photo, replacing the slot's previous thumbnail.
+     * Thumbnails larger than {@link #getMaxDataLength()} aren't stored, but counted in
+     * {@link #getDroppedPuts()}.
+     */
+    synchronized void put(String photo, byte[] data) {
+        byte[] key = photo.getBytes(UTF_8);
+        if (mBuffer == null || key.length > MAX_KEY_LENGTH) {
+            return;
+        }
+        if (data.length > getMaxDataLength()) {
+            mDroppedPuts++;
+            Log.w(LOG_TAG, "Thumbnail of " + photo + " takes " + data.length + " bytes, slots "
+                    + "only hold " + getMaxDataLength() + " (" + mDroppedPuts + " dropped)");
+            return;
+        }
+        int slot = slotOf(photo);
+        mBuffer.putInt(slot, 0);
+        mBuffer.put(slot + 4, (byte) key.length);
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(slot + KEY_OFFSET);
+        view.put(key);
+        view.position(slot + DATA_OFFSET);
+        view.put(data);
+        mBuffer.putInt(slot, data.length);
+    }
+
+    private boolean hasKey(int slot, byte[] key) {
+        if (mBuffer.get(slot + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (mBuffer.get(slot + KEY_OFFSET + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the offset of the slot of the given photo.
+     */
+    private int slotOf(String photo) {
+        return ((photo.hashCode() & 0x7fffffff) % mSlotCount) * mSlotSize;
+    }
+}
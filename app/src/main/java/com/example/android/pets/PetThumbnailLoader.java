@@ -0,0 +1,289 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetPhotos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the square thumbnails of pet photos into image views without blocking the main thread.
+ * <p>
+ * Decoded thumbnails are kept in a pool bounded by bytes, so scrolling back over rows already
+ * seen binds them right away. Other thumbnails are decoded on background threads: from
+ * {@link PetThumbnailCache} when they were made before, or else from the photo itself, after
+ * which the encoded thumbnail is stored there for next time. A view that was rebound to
+ * another pet meanwhile never receives the thumbnail it no longer shows, and work for it is
+ * skipped if it hasn't started yet.
+ * <p>
+ * Thumbnails evicted from the pool while no view is bound to their photo are kept for reuse:
+ * the next thumbnail is decoded into one of them through {@link BitmapFactory.Options#inBitmap},
+ * or drawn into one, instead of allocating a new bitmap for every row scrolled to.
+ */
+final class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Part of the app's memory given to decoded thumbnails */
+    private static final int POOL_MEMORY_FRACTION = 16;
+
+    private static final int DECODE_THREADS = 2;
+
+    /** Evicted thumbnails kept for reuse */
+    private static final int MAX_REUSABLE = 8;
+
+    /**
+     * JPEG qualities tried in turn when storing a thumbnail, until one fits the slots of
+     * {@link PetThumbnailCache}
+     */
+    private static final int[] JPEG_QUALITIES = {80, 60, 40};
+
+    private static PetThumbnailLoader sInstance;
+
+    private final Context mContext;
+    private final PetThumbnailCache mCache;
+    private final int mSize;
+    private final LruCache<String, Bitmap> mPool;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //number of views bound to each photo, so its thumbnail isn't reused while shown
+    private final HashMap<String, Integer> mBoundViews = new HashMap<>();
+
+    //evicted thumbnails no view shows, guarded by itself
+    private final ArrayDeque<Bitmap> mReusable = new ArrayDeque<>();
+
+    static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PetThumbnailLoader(Context context) {
+        mContext = context;
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mCache = PetThumbnailCache.getInstance(context, mSize);
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / POOL_MEMORY_FRACTION);
+        mPool = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String photo, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String photo, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                recycle(photo, oldBitmap);
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the given photo in the given view, or nothing if the photo is null.
+     * Must be called on the main thread.
+     */
+    void load(final String photo, ImageView view) {
+        bind(view, photo);
+        if (photo == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+        Bitmap bitmap = mPool.get(photo);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        final WeakReference<ImageView> viewReference = new WeakReference<>(view);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Rows scrolled past quickly don't cost a decode
+                if (!isWaitingFor(viewReference.get(), photo)) {
+                    return;
+                }
+                final Bitmap bitmap = loadThumbnail(photo);
+                if (bitmap == null) {
+                    return;
+                }
+                mPool.put(photo, bitmap);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ImageView view = viewReference.get();
+                        if (isWaitingFor(view, photo)) {
+                            view.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tag the given view with the photo it shows from now on, and count the views bound to
+     * each photo. A view only ever shows the thumbnail of the photo it is tagged with, or
+     * nothing.
+     */
+    private void bind(ImageView view, String photo) {
+        String previous = (String) view.getTag(R.id.pet_photo);
+        view.setTag(R.id.pet_photo, photo);
+        synchronized (mBoundViews) {
+            if (previous != null) {
+                int count = mBoundViews.get(previous);
+                if (count == 1) {
+                    mBoundViews.remove(previous);
+                } else {
+                    mBoundViews.put(previous, count - 1);
+                }
+            }
+            if (photo != null) {
+                Integer count = mBoundViews.get(photo);
+                mBoundViews.put(photo, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Keep the given thumbnail, just removed from the pool, for reuse unless a view may still
+     * show it.
+     */
+    private void recycle(String photo, Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.getWidth() != mSize || bitmap.getHeight() != mSize
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        synchronized (mBoundViews) {
+            if (mBoundViews.containsKey(photo)) {
+                return;
+            }
+        }
+        synchronized (mReusable) {
+            if (mReusable.size() < MAX_REUSABLE) {
+                mReusable.push(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Return a thumbnail bitmap no view shows anymore, or null if there is none.
+     */
+    private Bitmap takeReusable() {
+        synchronized (mReusable) {
+            return mReusable.poll();
+        }
+    }
+
+    private static boolean isWaitingFor(ImageView view, String photo) {
+        return view != null && photo.equals(view.getTag(R.id.pet_photo));
+    }
+
+    private Bitmap loadThumbnail(String photo) {
+        byte[] data = mCache.get(photo);
+        if (data != null) {
+            Bitmap bitmap = decodeThumbnail(data);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = makeThumbnail(PetPhotos.getPhotoFile(mContext, photo));
+        if (bitmap != null) {
+            mCache.put(photo, encode(bitmap));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode a thumbnail stored in the cache, into a reusable bitmap if there is one. The
+     * result is mutable, so it can be reused in turn. Return null if it can't be decoded.
+     */
+    private Bitmap decodeThumbnail(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = takeReusable();
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // A thumbnail of another size, stored before the size changed
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Encode the given thumbnail at the highest of {@link #JPEG_QUALITIES} that fits a cache
+     * slot, or at the lowest if none does.
+     */
+    private byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (int quality : JPEG_QUALITIES) {
+            encoded.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, encoded);
+            if (encoded.size() <= mCache.getMaxDataLength()) {
+                break;
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Decode the given photo, subsampled to about the thumbnail size, and crop its center to
+     * the thumbnail square. Return null if it can't be decoded.
+     */
+    private Bitmap makeThumbnail(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOG_TAG, "Cannot decode photo " + file);
+            return null;
+        }
+
+        // Largest power of two keeping the short side at least the thumbnail size
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (shortSide / (options.inSampleSize * 2) >= mSize) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap decoded = BitmapFactory.decodeFile(file.getPath(), options);
+        if (decoded == null) {
+            Log.w(LOG_TAG, "Cannot decode photo " + file);
+            return null;
+        }
+
+        int side = Math.min(decoded.getWidth(), decoded.getHeight());
+        int left = (decoded.getWidth() - side) / 2;
+        int top = (decoded.getHeight() - side) / 2;
+        Bitmap thumbnail = takeReusable();
+        if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.ARGB_8888);
+        } else {
+            thumbnail.eraseColor(Color.TRANSPARENT);
+        }
+        new Canvas(thumbnail).drawBitmap(decoded, new Rect(left, top, left + side, top + side),
+                new Rect(0, 0, mSize, mSize), new Paint(Paint.FILTER_BITMAP_FLAG));
+        decoded.recycle();
+        return thumbnail;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetWriter;
+
+/**
+ * Shows a toast telling whether a queued write succeeded. Holds the application context only,
+ * so a finished activity isn't kept around until the write is done.
+ */
+final class ToastCallback implements PetWriter.Callback {
+    private final Context mContext;
+    private final int mSuccessMessage;
+    private final int mFailureMessage;
+
+    ToastCallback(Context context, int successMessage, int failureMessage) {
+        mContext = context.getApplicationContext();
+        mSuccessMessage = successMessage;
+        mFailureMessage = failureMessage;
+    }
+
+    @Override
+    public void onWriteComplete(int rowsAffected, Uri newUri) {
+        // If no rows were affected, then there was an error with the write.
+        Toast.makeText(mContext, rowsAffected == 0 ? mFailureMessage : mSuccessMessage,
+                Toast.LENGTH_SHORT).show();
+    }
+}
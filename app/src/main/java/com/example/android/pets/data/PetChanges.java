@@ -0,0 +1,92 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * The set of pets changed by one write (or one batch of writes), collected by
+ * {@link PetProvider} so that observers can be told exactly which rows changed.
+ */
+final class PetChanges {
+
+    /**
+     * Largest number of ids listed in a change notification. Bigger changes are reported as a
+     * change of the whole table.
+     */
+    static final int MAX_NOTIFIED_IDS = 100;
+
+    private long[] mIds = new long[8];
+    private int mCount;
+    private boolean mAll;
+
+    /**
+     * Record that the pet with the given id changed.
+     */
+    void add(long id) {
+        if (mAll) {
+            return;
+        }
+        if (mCount == mIds.length) {
+            long[] ids = new long[mCount * 2];
+            System.arraycopy(mIds, 0, ids, 0, mCount);
+            mIds = ids;
+        }
+        mIds[mCount++] = id;
+    }
+
+    /**
+     * Record that any pet may have changed.
+     */
+    void addAll() {
+        mAll = true;
+        mCount = 0;
+    }
+
+    /**
+     * Merge the given changes into these.
+     */
+    void addAll(PetChanges changes) {
+        if (changes.mAll) {
+            addAll();
+            return;
+        }
+        for (int i = 0; i < changes.mCount; i++) {
+            add(changes.mIds[i]);
+        }
+    }
+
+    boolean isEmpty() {
+        return !mAll && mCount == 0;
+    }
+
+    boolean isAll() {
+        return mAll;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    long get(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * Return the URI to notify for these changes: the pet's own URI for a single pet, the
+     * coalesced descriptor built by {@link PetEntry#buildChangeUri} for a few pets, or the
+     * whole table URI otherwise.
+     */
+    Uri toNotificationUri() {
+        if (mAll || mCount > MAX_NOTIFIED_IDS) {
+            return PetEntry.CONTENT_URI;
+        }
+        if (mCount == 1) {
+            return ContentUris.withAppendedId(PetEntry.CONTENT_URI, mIds[0]);
+        }
+        long[] ids = new long[mCount];
+        System.arraycopy(mIds, 0, ids, 0, mCount);
+        return PetEntry.buildChangeUri(ids);
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purges the tombstones left by deletes in the background.
+ * <p>
+ * The compaction starts once no delete has been scheduled for {@link #IDLE_DELAY_MS}. Tombstones
+ * are purged {@link #CHUNK_SIZE} rows per transaction with a pause in between, so other writers
+ * never wait long for the write lock, and readers never wait at all under write-ahead logging.
+ * The freed pages are then given back to the file system with an incremental vacuum.
+ * <p>
+ * Photo files no pet refers to anymore, left behind by purged pets and replaced photos, are
+ * deleted as well. Finding them reads the photo of every pet, so that sweep runs with the first
+ * compaction of the process and then at most once per {@link #PHOTO_SWEEP_INTERVAL_MS}.
+ */
+final class PetCompactor {
+
+    /** Time without deletes before the compaction starts */
+    private static final long IDLE_DELAY_MS = 2000;
+
+    /** Rows purged per transaction */
+    private static final int CHUNK_SIZE = 500;
+
+    /** Pause between two chunks, leaving room for other writers */
+    private static final long CHUNK_PAUSE_MS = 20;
+
+    /** Free pages released per incremental vacuum step */
+    private static final int VACUUM_PAGES = 256;
+
+    /**
+     * Age under which an unreferenced photo file is kept: the editor copies a photo as soon as
+     * it is picked, and the pet referring to it may not be saved yet
+     */
+    private static final long PHOTO_GRACE_MS = 60 * 60 * 1000;
+
+    /** Minimum time between two sweeps of unused photo files */
+    private static final long PHOTO_SWEEP_INTERVAL_MS = 60 * 60 * 1000;
+
+    /** Time {@link #shutdown()} waits for a running compaction */
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private final PetDbHelper mDbHelper;
+    private final File mPhotoDir;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    //next compaction, guarded by this
+    private ScheduledFuture<?> mPending;
+
+    //elapsed realtime from which the next compaction sweeps photos, only used by mExecutor
+    private long mNextPhotoSweepMs;
+
+    private final Runnable mCompaction = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    PetCompactor(PetDbHelper dbHelper, File photoDir) {
+        mDbHelper = dbHelper;
+        mPhotoDir = photoDir;
+    }
+
+    /**
+     * Compact once the database has been idle for a while. Calling this again before then
+     * pushes the compaction back.
+     */
+    synchronized void schedule() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        if (mPending != null) {
+            mPending.cancel(false);
+        }
+        mPending = mExecutor.schedule(mCompaction, IDLE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel the pending compaction and stop the background thread, waiting for a compaction
+     * already running to finish, so that nothing reopens the database once it is closed.
+     * Later calls to {@link #schedule()} are ignored.
+     */
+    synchronized void shutdown() {
+        mExecutor.shutdownNow();
+        try {
+            if (!mExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(PetProvider.LOG_TAG, "Compaction still running after shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compact() {
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            // Pets below the watermark, walking the table in _id order, then single deletes
+            // through the tombstone index
+            int purged = purge(database, PetEntry._ID + " <= " + PetDbHelper.SQL_WATERMARK)
+                    + purge(database, PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL");
+            long now = SystemClock.elapsedRealtime();
+            if (now >= mNextPhotoSweepMs) {
+                mNextPhotoSweepMs = now + PHOTO_SWEEP_INTERVAL_MS;
+                deleteUnusedPhotos(database);
+            }
+            if (purged == 0) {
+                return;
+            }
+
+            // A few pages at a time, so the write lock is released in between
+            if (isIncrementalVacuum(database)) {
+                long freePages = countFreePages(database);
+                while (freePages > 0) {
+                    mDbHelper.incrementalVacuum(VACUUM_PAGES);
+                    long left = countFreePages(database);
+                    if (left >= freePages) {
+                        break;
+                    }
+                    freePages = left;
+                    SystemClock.sleep(CHUNK_PAUSE_MS);
+                }
+            }
+            Log.i(PetProvider.LOG_TAG, "Compaction purged " + purged + " deleted pets");
+        } catch (SQLiteException e) {
+            // Tombstones are invisible anyway, the next compaction will try again
+            Log.w(PetProvider.LOG_TAG, "Compaction failed", e);
+        }
+    }
+
+    /**
+     * Delete the rows matching the given selection, a chunk at a time. Return how many were
+     * deleted.
+     */
+    private static int purge(SQLiteDatabase database, String selection) {
+        String chunk = PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + selection + " LIMIT " + CHUNK_SIZE + ")";
+        int total = 0;
+        int rows;
+        do {
+            database.beginTransactionNonExclusive();
+            try {
+                rows = database.delete(PetEntry.TABLE_NAME, chunk, null);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            total += rows;
+            if (rows == CHUNK_SIZE) {
+                SystemClock.sleep(CHUNK_PAUSE_MS);
+            }
+        } while (rows == CHUNK_SIZE);
+        return total;
+    }
+
+    /**
+     * Delete the photo files that no pet row refers to, unless they are very recent.
+     */
+    private void deleteUnusedPhotos(SQLiteDatabase database) {
+        File[] files = mPhotoDir.listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+        HashSet<String> used = new HashSet<>();
+        Cursor cursor = database.query(PetEntry.TABLE_NAME,
+                new String[]{PetEntry.COLUMN_PET_PHOTO},
+                PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                used.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long keepAfter = System.currentTimeMillis() - PHOTO_GRACE_MS;
+        for (File file : files) {
+            if (!used.contains(file.getName()) && file.lastModified() < keepAfter) {
+                file.delete();
+            }
+        }
+    }
+
+    private static long countFreePages(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+    }
+
+    private static boolean isIncrementalVacuum(SQLiteDatabase database) {
+        return PetDbHelper.getAutoVacuum(database) == PetDbHelper.AUTO_VACUUM_INCREMENTAL;
+    }
+}
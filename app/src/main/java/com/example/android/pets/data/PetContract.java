@@ -3,6 +3,9 @@ package com.example.android.pets.data;
 import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.Arrays;
 
 /**
  * Created by d on 10/2/2017.
@@ -30,6 +33,86 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to the pets content URI for full-text search,
+     * e.g. content://com.example.android.pets/pets/search?q=lab
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the pets content URI to stream an export of the whole table,
+     * e.g. content://com.example.android.pets/pets/export?format=json
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the pets content URI for the narrow rows shown by lists,
+     * e.g. content://com.example.android.pets/pets/summary?limit=50
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path appended to the pets content URI for the provider's own metrics,
+     * e.g. content://com.example.android.pets/pets/metrics
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Path appended to the pets content URI for the slow query log,
+     * e.g. content://com.example.android.pets/pets/slow_queries
+     */
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    /**
+     * Path appended to a single pet's content URI for its weight history,
+     * e.g. content://com.example.android.pets/pets/3/weights
+     */
+    public static final String PATH_WEIGHTS = "weights";
+
+    /**
+     * Path appended to the pets content URI for the change journal,
+     * e.g. content://com.example.android.pets/pets/changes?since=42
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the pets content URI for statistics, optionally followed by
+     * {@link #PATH_GENDER} or {@link #PATH_BREED} to group them,
+     * e.g. content://com.example.android.pets/pets/stats/gender
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_GENDER = "gender";
+    public static final String PATH_BREED = "breed";
+
+
+    /**
+     * Name of the {@link android.content.ContentResolver#call} method returning the statistics
+     * of the provider's single pet cache, under the KEY_CACHE_* keys.
+     */
+    public static final String METHOD_GET_ROW_CACHE_STATS = "getRowCacheStats";
+
+    /**
+     * Name of the {@link android.content.ContentResolver#call} method returning the statistics
+     * of the provider's list query cache, under the KEY_CACHE_* keys. Its size and maximum size
+     * are in bytes.
+     */
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "getQueryCacheStats";
+
+    //keys of the bundles returned by METHOD_GET_ROW_CACHE_STATS and METHOD_GET_QUERY_CACHE_STATS
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_SIZE = "size";
+    public static final String KEY_CACHE_MAX_SIZE = "max_size";
+    public static final String KEY_CACHE_ENTRIES = "entries";
+
+    /**
+     * Name of the {@link android.content.ContentResolver#call} method setting the threshold of
+     * the slow query log. The argument is the threshold in milliseconds; a negative or missing
+     * one disables the log. The returned bundle holds the threshold now in effect under
+     * {@link #KEY_SLOW_QUERY_THRESHOLD_MS}.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "setSlowQueryThreshold";
+    public static final String KEY_SLOW_QUERY_THRESHOLD_MS = "threshold_ms";
 
     //dummy constructor
     private PetContract() {
@@ -48,14 +131,46 @@ public final class PetContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * The content URI to search pets by name and breed. Pass the search text in the
+         * {@link #QUERY_PARAMETER_SEARCH} query parameter; every word is matched as a prefix.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to read an export of all pets from, with
+         * {@link android.content.ContentResolver#openInputStream}. The format is chosen with the
+         * {@link #QUERY_PARAMETER_FORMAT} query parameter and defaults to CSV.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI of the pets as shown in a list: only the {@link #SUMMARY_COLUMNS},
+         * read from an index holding exactly those columns. It takes the same paging query
+         * parameters as {@link #CONTENT_URI}.
+         */
+        public static final Uri CONTENT_SUMMARY_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
         //table name defined
         public static final String TABLE_NAME = "pets";
+        //full-text index over the name and breed of the pets table
+        public static final String FTS_TABLE_NAME = "pets_fts";
         //fields in pets table
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PET_NAME = "name";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        //file name of the pet's photo in the photos directory, see PetPhotos. Null if none
+        public static final String COLUMN_PET_PHOTO = "photo";
+        //when the pet was deleted, null while it isn't. Bookkeeping only: deleted pets are
+        //never returned, and the column can't be queried or written through the provider
+        public static final String COLUMN_PET_DELETED_AT = "deleted_at";
+
+        //columns of the CONTENT_SUMMARY_URI rows, also its default projection
+        public static final String[] SUMMARY_COLUMNS =
+                {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_PHOTO};
 
         //helper constants for gender
         public static final int GENDER_MALE = 1;
@@ -74,8 +189,595 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Query parameter limiting a {@link #CONTENT_URI} query to one page of at most this many
+         * rows. When present, the provider pages through the table with a keyset (the sort key
+         * and _id of the last row already seen) instead of returning the whole table.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter holding the _id of the last row of the previous page. Only rows after
+         * it (in page order) are returned. Omit it to get the first page.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter holding the value of the sort column for the last row of the previous
+         * page. Required together with {@link #QUERY_PARAMETER_AFTER_ID} unless pages are
+         * ordered by {@link #SORT_ID}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /**
+         * Query parameter selecting the order of pages, one of {@link #SORT_ID} (the default),
+         * {@link #SORT_NAME} or {@link #SORT_WEIGHT}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter restricting a {@link #CONTENT_URI} or {@link #CONTENT_SUMMARY_URI}
+         * query to the pets of one gender, one of the GENDER constants.
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+
+        /**
+         * Query parameter restricting a {@link #CONTENT_URI} or {@link #CONTENT_SUMMARY_URI}
+         * query to the pets of one breed, matched exactly.
+         */
+        public static final String QUERY_PARAMETER_BREED = "breed";
+
+        /**
+         * Query parameter holding the text to look for in a {@link #CONTENT_SEARCH_URI} query.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter listing the comma separated ids of the pets a change notification is
+         * about. See {@link #buildChangeUri} and {@link #getChangedIds}.
+         */
+        public static final String QUERY_PARAMETER_IDS = "ids";
+
+        /**
+         * Query parameter which, when "false", stops the returned cursor from watching the URI
+         * for changes. Meant for callers that observe change notifications themselves.
+         */
+        public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * Query parameter selecting the format of a {@link #CONTENT_EXPORT_URI} export, either
+         * {@link #FORMAT_CSV} or {@link #FORMAT_JSON}.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+
+        //possible values for the format query parameter, and their MIME types
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+        public static final String CSV_TYPE = "text/csv";
+        public static final String JSON_TYPE = "application/json";
+
+        //possible values for the sort query parameter
+        public static final String SORT_ID = "id";
+        public static final String SORT_NAME = "name";
+        public static final String SORT_WEIGHT = "weight";
+
+        /** Number of pets per page of the catalog list */
+        public static final int CATALOG_PAGE_SIZE = 50;
+
         public static boolean isValidGender(int gender) {
             return gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE;
         }
+
+        //weight is in kg, and can't be negative
+        public static boolean isValidWeight(int weight) {
+            return weight >= 0;
+        }
+
+        //a photo is a plain file name inside the photos directory, or null
+        public static boolean isValidPhoto(String photo) {
+            return photo == null || (!photo.isEmpty() && !photo.startsWith(".")
+                    && photo.indexOf('/') == -1);
+        }
+
+        /**
+         * Build the URI of the catalog page following the pet with the given _id, 0 for the
+         * first page. The catalog watches change notifications itself, so the page doesn't.
+         * The provider prewarms the first page with this same URI, which lets the catalog's
+         * first query come straight from its cache.
+         */
+        public static Uri buildCatalogPageUri(long afterId) {
+            return PetListOptions.DEFAULT.buildPageUri(afterId, null);
+        }
+
+        /**
+         * Build the URI the provider notifies when the given pets changed together, e.g.
+         * content://com.example.android.pets/pets?ids=3,4,7
+         */
+        public static Uri buildChangeUri(long[] ids) {
+            StringBuilder list = new StringBuilder();
+            for (long id : ids) {
+                if (list.length() != 0) {
+                    list.append(',');
+                }
+                list.append(id);
+            }
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_IDS, list.toString())
+                    .build();
+        }
+
+        /**
+         * Return the ids of the pets a change notification URI is about, or null if any pet may
+         * have changed.
+         */
+        public static long[] getChangedIds(Uri uri) {
+            try {
+                // A single pet URI, content://com.example.android.pets/pets/3
+                if (uri.getPathSegments().size() == 2) {
+                    return new long[]{Long.parseLong(uri.getLastPathSegment())};
+                }
+
+                // A new weight measurement changes the pet's history, not the pet itself
+                if (uri.getPathSegments().size() == 3
+                        && PATH_WEIGHTS.equals(uri.getLastPathSegment())) {
+                    return new long[0];
+                }
+
+                // A descriptor built by buildChangeUri()
+                String list = uri.getQueryParameter(QUERY_PARAMETER_IDS);
+                if (list == null) {
+                    return null;
+                }
+                String[] values = list.split(",");
+                long[] ids = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    ids[i] = Long.parseLong(values[i]);
+                }
+                return ids;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The order and filters of a paged list of pets, turned into the query parameters of
+     * {@link PetEntry#CONTENT_SUMMARY_URI}. Options are immutable; the with methods return a
+     * copy and reject values the provider wouldn't accept.
+     * <p>
+     * Every combination is answered from an index, and pages are read with a keyset, so a page
+     * costs the same however deep into the list it is.
+     */
+    public static final class PetListOptions {
+
+        /** Gender of the options that don't filter on gender */
+        public static final int ANY_GENDER = -1;
+
+        /** Pets in _id order, without filters */
+        public static final PetListOptions DEFAULT =
+                new PetListOptions(PetEntry.SORT_ID, ANY_GENDER, null);
+
+        private final String mSort;
+        private final int mGender;
+        private final String mBreed;
+
+        private PetListOptions(String sort, int gender, String breed) {
+            mSort = sort;
+            mGender = gender;
+            mBreed = breed;
+        }
+
+        /**
+         * Return these options ordered by one of the SORT constants of {@link PetEntry}.
+         */
+        public PetListOptions withSort(String sort) {
+            if (!PetEntry.SORT_ID.equals(sort) && !PetEntry.SORT_NAME.equals(sort)
+                    && !PetEntry.SORT_WEIGHT.equals(sort)) {
+                throw new IllegalArgumentException("Unknown sort order " + sort);
+            }
+            return new PetListOptions(sort, mGender, mBreed);
+        }
+
+        /**
+         * Return these options only keeping pets of the given gender, or of any gender for
+         * {@link #ANY_GENDER}.
+         */
+        public PetListOptions withGender(int gender) {
+            if (gender != ANY_GENDER && !PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Invalid gender " + gender);
+            }
+            return new PetListOptions(mSort, gender, mBreed);
+        }
+
+        /**
+         * Return these options only keeping pets of the given breed, or of any breed if it is
+         * null or empty.
+         */
+        public PetListOptions withBreed(String breed) {
+            return new PetListOptions(mSort, mGender, TextUtils.isEmpty(breed) ? null : breed);
+        }
+
+        public String getSort() {
+            return mSort;
+        }
+
+        public int getGender() {
+            return mGender;
+        }
+
+        public String getBreed() {
+            return mBreed;
+        }
+
+        /**
+         * Return the column holding the key of each row, which the next page starts after,
+         * or null if pages are keyed by _id alone.
+         */
+        public String getKeyColumn() {
+            if (PetEntry.SORT_NAME.equals(mSort)) {
+                return PetEntry.COLUMN_PET_NAME;
+            } else if (PetEntry.SORT_WEIGHT.equals(mSort)) {
+                return PetEntry.COLUMN_PET_WEIGHT;
+            }
+            return null;
+        }
+
+        /**
+         * Compare two values of the key column the way pages are ordered by them, nulls first.
+         * Return 0 when pages are keyed by _id alone.
+         */
+        public int compareKeys(String key1, String key2) {
+            if (getKeyColumn() == null || key1 == key2) {
+                return 0;
+            } else if (key1 == null || key2 == null) {
+                return key1 == null ? -1 : 1;
+            } else if (PetEntry.SORT_WEIGHT.equals(mSort)) {
+                return Double.compare(Double.parseDouble(key1), Double.parseDouble(key2));
+            }
+            // SQLite compares text byte by byte in UTF-8, which follows code point order
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < key1.length() && i2 < key2.length()) {
+                int c1 = key1.codePointAt(i1);
+                int c2 = key2.codePointAt(i2);
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            return (key1.length() - i1) - (key2.length() - i2);
+        }
+
+        /**
+         * Return whether pets are in _id order and unfiltered, so a pet that wasn't shown yet
+         * can only show up at the end of the list.
+         */
+        public boolean isDefault() {
+            return equals(DEFAULT);
+        }
+
+        /**
+         * Return the columns to query for a page: the list columns, plus the key column if it
+         * isn't one of them.
+         */
+        public String[] getProjection() {
+            if (!PetEntry.SORT_WEIGHT.equals(mSort)) {
+                return PetEntry.SUMMARY_COLUMNS;
+            }
+            String[] projection = Arrays.copyOf(PetEntry.SUMMARY_COLUMNS,
+                    PetEntry.SUMMARY_COLUMNS.length + 1);
+            projection[PetEntry.SUMMARY_COLUMNS.length] = PetEntry.COLUMN_PET_WEIGHT;
+            return projection;
+        }
+
+        /**
+         * Build the URI of the page following the pet with the given _id and key, with an
+         * _id of 0 for the first page. The key is ignored when pages are keyed by _id alone.
+         */
+        public Uri buildPageUri(long afterId, String afterKey) {
+            Uri.Builder builder = PetEntry.CONTENT_SUMMARY_URI.buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(PetEntry.CATALOG_PAGE_SIZE));
+            if (!PetEntry.SORT_ID.equals(mSort)) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, mSort);
+            }
+            if (mGender != ANY_GENDER) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_GENDER,
+                        String.valueOf(mGender));
+            }
+            if (mBreed != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_BREED, mBreed);
+            }
+            // The first page of a sorted list has no key to start after
+            if (afterId != 0 || getKeyColumn() == null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID,
+                        String.valueOf(afterId));
+                if (getKeyColumn() != null) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+            }
+            return builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_NOTIFY, "false")
+                    .build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PetListOptions)) {
+                return false;
+            }
+            PetListOptions other = (PetListOptions) o;
+            return mSort.equals(other.mSort) && mGender == other.mGender
+                    && TextUtils.equals(mBreed, other.mBreed);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mSort.hashCode() * 31 + mGender) * 31
+                    + (mBreed == null ? 0 : mBreed.hashCode());
+        }
+    }
+
+    //class for the pet statistics, kept up to date by triggers on the pets table
+
+    public static final class PetStatsEntry {
+
+        /**
+         * The content URI of the overall statistics: a single row with the number of pets and
+         * their weight distribution.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The content URI of the statistics grouped by gender, one row per gender.
+         */
+        public static final Uri CONTENT_GENDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_GENDER);
+
+        /**
+         * The content URI of the statistics grouped by breed, one row per breed. Pets without a
+         * breed are grouped under an empty breed.
+         */
+        public static final Uri CONTENT_BREED_URI = Uri.withAppendedPath(CONTENT_URI, PATH_BREED);
+
+        //summary tables
+        public static final String GENDER_TABLE_NAME = "pet_gender_stats";
+        public static final String BREED_TABLE_NAME = "pet_breed_stats";
+
+        //columns of the summary tables and of the statistics cursors
+        public static final String COLUMN_GENDER = PetEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_BREED = PetEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_COUNT = "pet_count";
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+        public static final String COLUMN_AVG_WEIGHT = "avg_weight";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        public static final String COLUMN_MEDIAN_WEIGHT = "p50_weight";
+        public static final String COLUMN_P90_WEIGHT = "p90_weight";
+        public static final String COLUMN_P99_WEIGHT = "p99_weight";
+
+        /**
+         * The MIME type of the statistics URIs.
+         */
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        private PetStatsEntry() {
+        }
+    }
+
+    //class for the weight history of the pets
+
+    public static final class PetWeightEntry {
+
+        /**
+         * Append-only table of weight measurements. A pet's weight is also recorded here every
+         * time it is set on the pet itself.
+         */
+        public static final String TABLE_NAME = "pet_weights";
+
+        /**
+         * Daily and weekly count, sum, minimum and maximum of the measurements of each pet,
+         * kept up to date by a trigger as measurements are added.
+         */
+        public static final String ROLLUP_TABLE_NAME = "pet_weight_rollups";
+
+        //columns of the measurements table. Times are in milliseconds since the epoch.
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_WEIGHT = PetEntry.COLUMN_PET_WEIGHT;
+
+        //columns of the history cursors. A raw measurement is a bucket of its own, starting at
+        //its time.
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        public static final String COLUMN_AVG_WEIGHT = "avg_weight";
+
+        /** Columns of every history cursor, in order */
+        public static final String[] HISTORY_COLUMNS = {COLUMN_TIME, COLUMN_COUNT,
+                COLUMN_MIN_WEIGHT, COLUMN_MAX_WEIGHT, COLUMN_AVG_WEIGHT};
+
+        /**
+         * Query parameters bounding a history query: measurements from the "from" time
+         * included up to the "to" time excluded. A bucket is returned whole as soon as it
+         * overlaps the range.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /**
+         * Query parameter selecting the buckets of a history query, one of the BUCKET_* values.
+         * Defaults to {@link #BUCKET_AUTO}.
+         */
+        public static final String QUERY_PARAMETER_BUCKET = "bucket";
+
+        //possible values for the bucket query parameter. Days and weeks (starting on Monday)
+        //are in UTC. Auto returns the raw measurements over a month of history or less, daily
+        //buckets up to two years and weekly buckets beyond that.
+        public static final String BUCKET_RAW = "raw";
+        public static final String BUCKET_DAY = "day";
+        public static final String BUCKET_WEEK = "week";
+        public static final String BUCKET_AUTO = "auto";
+
+        /**
+         * The MIME type of the weight history URIs.
+         */
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+
+        /**
+         * Build the weight history URI of the given pet. Inserting into it adds a measurement,
+         * whose time defaults to now.
+         */
+        public static Uri buildWeightsUri(long petId) {
+            return PetEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(petId))
+                    .appendPath(PATH_WEIGHTS)
+                    .build();
+        }
+
+        public static boolean isValidBucket(String bucket) {
+            return BUCKET_RAW.equals(bucket) || BUCKET_DAY.equals(bucket)
+                    || BUCKET_WEEK.equals(bucket) || BUCKET_AUTO.equals(bucket);
+        }
+
+        private PetWeightEntry() {
+        }
+    }
+
+    //class for the change journal, which lets a sync client pull only what changed
+
+    public static final class PetChangeEntry {
+
+        /**
+         * The content URI of the changes since the sequence number of the
+         * {@link #QUERY_PARAMETER_SINCE} query parameter, coalesced to one row per pet in
+         * sequence order: an {@link #OP_DELETE_ALL} row first if every pet was deleted
+         * meanwhile, then every pet that changed, with its current values unless it was
+         * deleted. A pet inserted and deleted since then isn't returned at all.
+         * <p>
+         * A client applies the rows in order, then pulls from the highest sequence number it
+         * received next time. Once the changes are safely stored, it acknowledges them through
+         * {@link #buildAcknowledgeUri}, which drops them from the journal; there is a single
+         * client, and pulling from before the last acknowledgement fails.
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        /** Append-only table of the changes, one row per write of a pet */
+        public static final String TABLE_NAME = "pet_changes";
+
+        //columns of the journal table and of the changes cursor, which also holds _id and
+        //the pet columns
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OP = "op";
+
+        //possible values of the op column. For OP_DELETE_ALL, the pet id is the highest id
+        //that was deleted: every pet up to it is gone.
+        public static final int OP_INSERT = 1;
+        public static final int OP_UPDATE = 2;
+        public static final int OP_DELETE = 3;
+        public static final int OP_DELETE_ALL = 4;
+
+        /**
+         * Query parameter holding the sequence number after which changes are returned, 0 for
+         * every change still in the journal.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Query parameter of a delete of the {@link #CONTENT_URI} holding the highest sequence
+         * number acknowledged.
+         */
+        public static final String QUERY_PARAMETER_UPTO = "upto";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * Build the URI of the changes since the given sequence number.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .build();
+        }
+
+        /**
+         * Build the URI to delete to acknowledge every change up to the given sequence number.
+         */
+        public static Uri buildAcknowledgeUri(long upto) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_UPTO, String.valueOf(upto))
+                    .build();
+        }
+
+        private PetChangeEntry() {
+        }
+    }
+
+    //class for the provider metrics, counted in memory since the provider started
+
+    public static final class PetMetricsEntry {
+
+        /**
+         * The content URI of the metrics: one row per operation and URI kind that ran at least
+         * once, then one row per counter.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_METRICS);
+
+        //columns of the metrics cursor. Latency percentiles are upper bounds, in microseconds.
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_MATCH = "match";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_MICROS = "total_us";
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+
+        //operations of the counter rows, which only have a count
+        public static final String OPERATION_WINDOW_FILL = "window_fill";
+        public static final String OPERATION_NOTIFY = "notify";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        private PetMetricsEntry() {
+        }
+    }
+
+    //class for the slow query log, enabled through METHOD_SET_SLOW_QUERY_THRESHOLD
+
+    public static final class PetSlowQueryEntry {
+
+        /**
+         * The content URI of the slow query log, most recent query first.
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_SLOW_QUERIES);
+
+        //columns of the slow query cursor
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_ELAPSED_MICROS = "elapsed_us";
+        public static final String COLUMN_SQL = "sql";
+        public static final String COLUMN_ARGS = "args";
+        public static final String COLUMN_PLAN = "plan";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        private PetSlowQueryEntry() {
+        }
     }
 }
@@ -1,10 +1,18 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by d on 10/3/2017.
@@ -12,17 +20,305 @@ import com.example.android.pets.data.PetContract.PetEntry;
 
 public class PetDbHelper extends SQLiteOpenHelper {
     //database name
-    private static final String DATABASE_NAME = "shelter.db";
-    //database version
-    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "shelter.db";
+    //database version. Bump it and add a step to migrate() whenever the schema changes.
+    static final int DATABASE_VERSION = 11;
+
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
+    /** PRAGMA auto_vacuum value of incremental auto vacuum */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Number of pages the write-ahead log may grow to before SQLite checkpoints it on its own
+     * (SQLite's default)
+     */
+    public static final int DEFAULT_AUTO_CHECKPOINT_PAGES = 1000;
+
+    /** Reader limit for no limit other than the size of the platform's connection pool */
+    public static final int UNLIMITED_READERS = 0;
+
+    //table of single named values, such as the delete all watermark
+    static final String META_TABLE_NAME = "pet_meta";
+    static final String META_KEY_DELETE_ALL_WATERMARK = "delete_all_watermark";
+    //highest change journal sequence number acknowledged by the consumer, see PetProvider#delete
+    static final String META_KEY_CHANGES_ACKNOWLEDGED = "changes_acknowledged";
+    //set by the version 11 migration when the file still has to be rebuilt by a VACUUM
+    static final String META_KEY_VACUUM_PENDING = "vacuum_pending";
+
+    /**
+     * The delete all watermark: every pet with an _id up to it was deleted by a "delete all".
+     * _id is AUTOINCREMENT, so pets inserted afterwards are always above it.
+     */
+    static final String SQL_WATERMARK = "(SELECT value FROM " + META_TABLE_NAME
+            + " WHERE key = '" + META_KEY_DELETE_ALL_WATERMARK + "')";
+
+    //lengths of the weight rollup buckets, in milliseconds
+    static final long DAY_MS = 24L * 60 * 60 * 1000;
+    static final long WEEK_MS = 7 * DAY_MS;
+
+    /** The current time in milliseconds since the epoch, as computed by SQLite */
+    private static final String SQL_NOW_MS =
+            "CAST((julianday('now') - 2440587.5) * " + DAY_MS + " AS INTEGER)";
+
+    /**
+     * Selection matching the pets that weren't deleted. Deleted pets stay in the table as
+     * tombstones until {@link PetCompactor} purges them.
+     */
+    static final String SELECTION_LIVE = liveRow(null);
+
+    //whether the database uses write-ahead logging instead of the rollback journal
+    private final boolean mWriteAheadLogging;
+    //wal_autocheckpoint value, 0 or less when the log is only checkpointed by checkpoint()
+    private final int mAutoCheckpointPages;
+    //permits of the queries reading at the same time, null when they aren't limited
+    private final Semaphore mReaders;
 
     //constructor. Add data from subclass to abstract superclass constructor
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, true, DEFAULT_AUTO_CHECKPOINT_PAGES);
+    }
+
+    /**
+     * Create a helper with the given journaling options.
+     * <p>
+     * With write-ahead logging, readers see the last committed state while a writer is
+     * active, so the catalog keeps loading during imports and edits. The framework then keeps a
+     * pool of reader connections next to the single writer connection; its size comes from
+     * the platform configuration and can't be set through the public API on this SDK level,
+     * so use {@link #PetDbHelper(Context, boolean, int, int, SQLiteDatabase.CursorFactory)}
+     * to limit the readers instead.
+     *
+     * @param writeAheadLogging   use write-ahead logging instead of the rollback journal
+     * @param autoCheckpointPages pages the log may reach before SQLite checkpoints it by itself,
+     *                            or 0 to only checkpoint when {@link #checkpoint()} is called,
+     *                            for example after a large batch
+     */
+    public PetDbHelper(Context context, boolean writeAheadLogging, int autoCheckpointPages) {
+        this(context, writeAheadLogging, autoCheckpointPages, null);
+    }
+
+    /**
+     * Create a helper with the given journaling options whose queries return cursors made by
+     * the given factory, or plain cursors if it is null.
+     */
+    public PetDbHelper(Context context, boolean writeAheadLogging, int autoCheckpointPages,
+                       SQLiteDatabase.CursorFactory cursorFactory) {
+        this(context, writeAheadLogging, autoCheckpointPages, UNLIMITED_READERS, cursorFactory);
+    }
+
+    /**
+     * Create a helper with the given journaling options and reader limit whose queries return
+     * cursors made by the given factory, or plain cursors if it is null.
+     *
+     * @param maxReaders number of queries that may read between {@link #beginRead()} and
+     *                   {@link #endRead()} at the same time, or {@link #UNLIMITED_READERS}.
+     *                   Readers past the limit wait for a permit instead of for a pooled
+     *                   connection, and don't hold the connection's page cache meanwhile.
+     */
+    public PetDbHelper(Context context, boolean writeAheadLogging, int autoCheckpointPages,
+                       int maxReaders, SQLiteDatabase.CursorFactory cursorFactory) {
+        super(context, DATABASE_NAME, cursorFactory, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        mAutoCheckpointPages = Math.max(autoCheckpointPages, 0);
+        mReaders = maxReaders > 0 ? new Semaphore(maxReaders, true) : null;
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Let the compactor give the pages of purged pets back to the file system. SQLite only
+        // takes this before the first table is created, and ignores it once the file is in WAL
+        // mode, so it must come before write-ahead logging is enabled below. Databases created
+        // before this setting are converted by the version 11 migration.
+        executePragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+
+        if (!mWriteAheadLogging) {
+            return;
+        }
+        // Enabled here rather than with setWriteAheadLoggingEnabled(), which would open the
+        // database in WAL mode before onConfigure runs
+        db.enableWriteAheadLogging();
+        // In WAL mode a commit only appends to the log, so NORMAL is enough to never corrupt the
+        // database; it saves an fsync per transaction compared to FULL.
+        executePragma(db, "PRAGMA synchronous = NORMAL");
+        executePragma(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages);
+    }
+
+    /**
+     * Return true if the write-ahead log is only checkpointed by {@link #checkpoint()}.
+     */
+    public boolean usesExplicitCheckpoints() {
+        return mWriteAheadLogging && mAutoCheckpointPages == 0;
+    }
+
+    /**
+     * Wait until fewer than the maximum number of readers are reading. Every call must be
+     * followed by a call to {@link #endRead()}, in a finally block.
+     */
+    public void beginRead() {
+        if (mReaders != null) {
+            mReaders.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Let the next waiting reader read.
+     */
+    public void endRead() {
+        if (mReaders != null) {
+            mReaders.release();
+        }
+    }
+
+    /**
+     * Copy the committed content of the write-ahead log back into the database file. Passive, so
+     * it never waits for readers or the writer; whatever can't be copied yet is left for the
+     * next checkpoint.
+     */
+    public void checkpoint() {
+        if (mWriteAheadLogging) {
+            executePragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Release up to the given number of free pages to the file system. Does nothing unless the
+     * database uses incremental auto vacuum.
+     */
+    public void incrementalVacuum(int pages) {
+        executePragma(getWritableDatabase(), "PRAGMA incremental_vacuum(" + pages + ")");
+    }
+
+    /**
+     * Return the condition that the given row ("new" or "old", a table alias, or null for the
+     * row of the query) is a pet that wasn't deleted.
+     */
+    static String liveRow(String row) {
+        String prefix = row == null ? "" : row + ".";
+        return prefix + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL AND "
+                + prefix + PetEntry._ID + " > " + SQL_WATERMARK;
+    }
+
+    /**
+     * Return the trigger statements adding ("+") or removing ("-") the given row ("new" or
+     * "old") to or from the gender and breed summaries. Groups left without pets are dropped.
+     */
+    private static String addToStats(String row, String sign) {
+        String gender = row + "." + PetEntry.COLUMN_PET_GENDER;
+        String breed = "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", '')";
+        String weight = row + "." + PetEntry.COLUMN_PET_WEIGHT;
+        return "INSERT OR IGNORE INTO " + PetStatsEntry.GENDER_TABLE_NAME
+                + " VALUES (" + gender + ", 0, 0); "
+                + "UPDATE " + PetStatsEntry.GENDER_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " " + sign + " 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " " + sign + " " + weight
+                + " WHERE " + PetStatsEntry.COLUMN_GENDER + " = " + gender + "; "
+                + "DELETE FROM " + PetStatsEntry.GENDER_TABLE_NAME + " WHERE "
+                + PetStatsEntry.COLUMN_GENDER + " = " + gender + " AND "
+                + PetStatsEntry.COLUMN_COUNT + " = 0; "
+                + "INSERT OR IGNORE INTO " + PetStatsEntry.BREED_TABLE_NAME
+                + " VALUES (" + breed + ", 0, 0); "
+                + "UPDATE " + PetStatsEntry.BREED_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " " + sign + " 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " " + sign + " " + weight
+                + " WHERE " + PetStatsEntry.COLUMN_BREED + " = " + breed + "; "
+                + "DELETE FROM " + PetStatsEntry.BREED_TABLE_NAME + " WHERE "
+                + PetStatsEntry.COLUMN_BREED + " = " + breed + " AND "
+                + PetStatsEntry.COLUMN_COUNT + " = 0;";
+    }
+
+    /**
+     * Return the trigger statements adding the new measurement to its bucket of the given
+     * length, which starts at the given time.
+     */
+    private static String addToRollup(long period, String start) {
+        String weight = "new." + PetWeightEntry.COLUMN_WEIGHT;
+        String bucket = PetWeightEntry.COLUMN_PET_ID + " = new." + PetWeightEntry.COLUMN_PET_ID
+                + " AND period = " + period + " AND start = " + start;
+        return "INSERT OR IGNORE INTO " + PetWeightEntry.ROLLUP_TABLE_NAME + " VALUES (new."
+                + PetWeightEntry.COLUMN_PET_ID + ", " + period + ", " + start + ", 0, 0, "
+                + weight + ", " + weight + "); "
+                + "UPDATE " + PetWeightEntry.ROLLUP_TABLE_NAME + " SET count = count + 1, "
+                + "sum = sum + " + weight + ", "
+                + "min = MIN(min, " + weight + "), "
+                + "max = MAX(max, " + weight + ") WHERE " + bucket + ";";
+    }
+
+    /**
+     * Return the trigger statement journaling the given operation on the given pet id.
+     */
+    private static String journal(String petId, int op) {
+        return "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID
+                + ", " + PetChangeEntry.COLUMN_OP + ") VALUES (" + petId + ", " + op + ");";
+    }
+
+    /**
+     * Run a PRAGMA statement. Some PRAGMAs return a row, which execSQL() doesn't allow, so run
+     * them as a query and discard the result.
+     */
+    private static void executePragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create the version 1 schema, then run every migration on top of it. Fresh installs and
+     * upgraded databases therefore always go through exactly the same steps and end up with
+     * the same schema.
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createVersion1(db);
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * Rebuild the file once after the version 11 migration, which can't run VACUUM inside its
+     * transaction. Write-ahead logging is turned off meanwhile, as older SQLite versions can't
+     * change auto_vacuum in WAL mode.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + META_TABLE_NAME
+                + " WHERE key = '" + META_KEY_VACUUM_PENDING + "'", null) > 0) {
+            if (mWriteAheadLogging) {
+                db.disableWriteAheadLogging();
+            }
+            try {
+                db.execSQL("VACUUM");
+                db.delete(META_TABLE_NAME, "key = ?", new String[]{META_KEY_VACUUM_PENDING});
+            } finally {
+                if (mWriteAheadLogging) {
+                    db.enableWriteAheadLogging();
+                }
+            }
+        }
+        if (getAutoVacuum(db) != AUTO_VACUUM_INCREMENTAL) {
+            Log.w(LOG_TAG, "Database isn't in incremental auto vacuum mode, deleted pets won't "
+                    + "give their space back");
+        }
+    }
+
+    /**
+     * Return the PRAGMA auto_vacuum value of the given database.
+     */
+    static long getAutoVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+    }
+
+    /**
+     * Create the version 1 schema, the starting point of every migration.
+     */
+    static void createVersion1(SQLiteDatabase db) {
         String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
                 + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
@@ -34,8 +330,292 @@ public class PetDbHelper extends SQLiteOpenHelper {
     }
 
     //when database is upgraded/updated. CHANGED in structure, not for adding records
+    //runs inside the transaction opened by SQLiteOpenHelper, so a failed step rolls back all of them
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
 
+    /**
+     * Bring the schema from version - 1 up to the given version. Steps must never be edited once
+     * released, only new ones added.
+     */
+    static void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Indexes for filtering and sorting by name, breed and gender/weight, so those
+                // queries search an index instead of scanning the whole table
+                db.execSQL("CREATE INDEX pets_name_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_NAME + ");");
+                db.execSQL("CREATE INDEX pets_breed_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_BREED + ");");
+                db.execSQL("CREATE INDEX pets_gender_weight_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + ");");
+                break;
+            case 3:
+                // Full-text index over name and breed. It is an external content table, so the
+                // text is stored only once in pets, and triggers keep the index in sync.
+                // prefix="2,3" adds prefix indexes so search-as-you-type queries stay fast.
+                db.execSQL("CREATE VIRTUAL TABLE " + PetEntry.FTS_TABLE_NAME + " USING fts4("
+                        + "content=\"" + PetEntry.TABLE_NAME + "\", "
+                        + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ", "
+                        + "prefix=\"2,3\");");
+                db.execSQL("CREATE TRIGGER pets_fts_before_update BEFORE UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                        + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                        + "DELETE FROM " + PetEntry.FTS_TABLE_NAME + " WHERE docid = old._id; END;");
+                db.execSQL("CREATE TRIGGER pets_fts_before_delete BEFORE DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + "DELETE FROM " + PetEntry.FTS_TABLE_NAME + " WHERE docid = old._id; END;");
+                db.execSQL("CREATE TRIGGER pets_fts_after_update AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                        + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                        + "INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") "
+                        + "VALUES (new._id, new." + PetEntry.COLUMN_PET_NAME
+                        + ", new." + PetEntry.COLUMN_PET_BREED + "); END;");
+                db.execSQL("CREATE TRIGGER pets_fts_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + "INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") "
+                        + "VALUES (new._id, new." + PetEntry.COLUMN_PET_NAME
+                        + ", new." + PetEntry.COLUMN_PET_BREED + "); END;");
+                // Index the pets that are already there
+                db.execSQL("INSERT INTO " + PetEntry.FTS_TABLE_NAME + " ("
+                        + PetEntry.FTS_TABLE_NAME + ") VALUES ('rebuild');");
+                break;
+            case 4:
+                // Per gender and per breed summaries (count and weight sum), maintained by
+                // triggers, so statistics cost one row per group instead of a scan of the pets
+                db.execSQL("CREATE TABLE " + PetStatsEntry.GENDER_TABLE_NAME + " ("
+                        + PetStatsEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY, "
+                        + PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL);");
+                db.execSQL("CREATE TABLE " + PetStatsEntry.BREED_TABLE_NAME + " ("
+                        + PetStatsEntry.COLUMN_BREED + " TEXT PRIMARY KEY, "
+                        + PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL);");
+                db.execSQL("CREATE TRIGGER pets_stats_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + addToStats("new", "+") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_after_delete AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + addToStats("old", "-") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_after_update AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                        + addToStats("old", "-") + addToStats("new", "+") + " END;");
+                // Summarize the pets that are already there
+                db.execSQL("INSERT INTO " + PetStatsEntry.GENDER_TABLE_NAME
+                        + " SELECT " + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM("
+                        + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                        + " GROUP BY " + PetEntry.COLUMN_PET_GENDER + ";");
+                db.execSQL("INSERT INTO " + PetStatsEntry.BREED_TABLE_NAME
+                        + " SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*), SUM("
+                        + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                        + " GROUP BY IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '');");
+                // Weight order, for the overall minimum, maximum and percentiles
+                db.execSQL("CREATE INDEX pets_weight_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_WEIGHT + ");");
+                break;
+            case 5:
+                // Covering index for list rows in name order: it holds every summary column in
+                // keyset order (name, then _id), so a page is read from the index alone. It
+                // starts with name, so it replaces the plain name index.
+                db.execSQL("DROP INDEX IF EXISTS pets_name_index;");
+                db.execSQL("CREATE INDEX pets_name_id_breed_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                        + PetEntry.COLUMN_PET_BREED + ");");
+                break;
+            case 6:
+                // Soft delete: deleting a pet only sets deleted_at, and "delete all" only moves
+                // the watermark, so neither holds the write lock for long. PetCompactor purges
+                // the tombstones later, in small chunks.
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " INTEGER;");
+                db.execSQL("CREATE TABLE " + META_TABLE_NAME + " ("
+                        + "key TEXT PRIMARY KEY, value INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + META_TABLE_NAME + " VALUES ('"
+                        + META_KEY_DELETE_ALL_WATERMARK + "', 0);");
+                // Deleted pets already left the summaries when they were deleted, so purging
+                // them mustn't count them again, and they can't be updated anymore
+                db.execSQL("DROP TRIGGER pets_stats_after_delete;");
+                db.execSQL("CREATE TRIGGER pets_stats_after_delete AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " WHEN " + liveRow("old") + " BEGIN "
+                        + addToStats("old", "-") + " END;");
+                db.execSQL("DROP TRIGGER pets_stats_after_update;");
+                db.execSQL("CREATE TRIGGER pets_stats_after_update AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + liveRow("old") + " AND new."
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL BEGIN "
+                        + addToStats("old", "-") + addToStats("new", "+") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_after_soft_delete AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + liveRow("old") + " AND new."
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL BEGIN "
+                        + addToStats("old", "-") + " END;");
+                // Tombstones, for the compactor
+                db.execSQL("CREATE INDEX pets_tombstone_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_DELETED_AT + ") WHERE "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL;");
+                // Queries now check deleted_at, which the covering indexes don't hold. Making
+                // them partial keeps them covering: every entry is a pet that wasn't deleted,
+                // and the _id checked against the watermark is part of every index entry.
+                db.execSQL("DROP INDEX pets_name_id_breed_index;");
+                db.execSQL("CREATE INDEX pets_live_name_id_breed_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                        + PetEntry.COLUMN_PET_BREED + ") WHERE "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                db.execSQL("DROP INDEX pets_weight_index;");
+                db.execSQL("CREATE INDEX pets_live_weight_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_WEIGHT + ") WHERE "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                break;
+            case 7:
+                // Catalog filters. Each index starts with the filtered column and is followed
+                // by a sort key, so a filtered page is a seek and an in order read. A gender
+                // alone is in _id order, and the (gender, weight) index already exists. Breeds
+                // are selective, so the breed index only carries the name order.
+                db.execSQL("DROP INDEX pets_breed_index;");
+                db.execSQL("CREATE INDEX pets_live_breed_name_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_NAME
+                        + ") WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                db.execSQL("CREATE INDEX pets_live_gender_name_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_NAME
+                        + ") WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                db.execSQL("CREATE INDEX pets_live_gender_index ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_GENDER + ") WHERE "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                break;
+            case 8:
+                // Photos are files, only their name is stored, so rows stay small and list
+                // cursor windows hold as many rows as before. The list shows the photo, so the
+                // list index carries it to stay covering.
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_PHOTO + " TEXT;");
+                db.execSQL("DROP INDEX pets_live_name_id_breed_index;");
+                db.execSQL("CREATE INDEX pets_live_name_id_breed_photo_index ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry._ID + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                        + PetEntry.COLUMN_PET_PHOTO + ") WHERE "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                break;
+            case 9:
+                // Weight history. Measurements are only ever appended, and a trigger adds each
+                // one to its daily and weekly rollup, so a long range reads one row per bucket
+                // instead of every measurement. The rollups are keyed by pet, bucket length and
+                // bucket start, so a range is a single seek and an in order read; the
+                // measurements index covers raw range reads the same way.
+                db.execSQL("CREATE TABLE " + PetWeightEntry.TABLE_NAME + " ("
+                        + PetEntry._ID + " INTEGER PRIMARY KEY, "
+                        + PetWeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                        + PetWeightEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                        + PetWeightEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);");
+                db.execSQL("CREATE INDEX pet_weights_pet_time_index ON "
+                        + PetWeightEntry.TABLE_NAME + " (" + PetWeightEntry.COLUMN_PET_ID + ", "
+                        + PetWeightEntry.COLUMN_TIME + ", " + PetWeightEntry.COLUMN_WEIGHT + ");");
+                db.execSQL("CREATE TABLE " + PetWeightEntry.ROLLUP_TABLE_NAME + " ("
+                        + PetWeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                        + "period INTEGER NOT NULL, "
+                        + "start INTEGER NOT NULL, "
+                        + "count INTEGER NOT NULL, "
+                        + "sum INTEGER NOT NULL, "
+                        + "min INTEGER NOT NULL, "
+                        + "max INTEGER NOT NULL, "
+                        + "PRIMARY KEY (" + PetWeightEntry.COLUMN_PET_ID + ", period, start)"
+                        + ") WITHOUT ROWID;");
+                // Days start at midnight UTC, weeks on Monday: the epoch was a Thursday, three
+                // days after a Monday
+                String time = "new." + PetWeightEntry.COLUMN_TIME;
+                db.execSQL("CREATE TRIGGER pet_weights_rollup_after_insert AFTER INSERT ON "
+                        + PetWeightEntry.TABLE_NAME + " BEGIN "
+                        + addToRollup(DAY_MS, "(" + time + " - " + time + " % " + DAY_MS + ")")
+                        + addToRollup(WEEK_MS, "(" + time + " - (" + time + " + " + 3 * DAY_MS
+                        + ") % " + WEEK_MS + ")")
+                        + " END;");
+                // Setting a pet's weight records a measurement. 0 is the editor's "unknown".
+                String record = "INSERT INTO " + PetWeightEntry.TABLE_NAME + " ("
+                        + PetWeightEntry.COLUMN_PET_ID + ", " + PetWeightEntry.COLUMN_TIME + ", "
+                        + PetWeightEntry.COLUMN_WEIGHT + ") VALUES (new." + PetEntry._ID + ", "
+                        + SQL_NOW_MS + ", new." + PetEntry.COLUMN_PET_WEIGHT + ");";
+                db.execSQL("CREATE TRIGGER pets_weight_history_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " WHEN new." + PetEntry.COLUMN_PET_WEIGHT
+                        + " > 0 BEGIN " + record + " END;");
+                db.execSQL("CREATE TRIGGER pets_weight_history_after_update AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN new." + PetEntry.COLUMN_PET_WEIGHT + " > 0 AND new."
+                        + PetEntry.COLUMN_PET_WEIGHT + " IS NOT old." + PetEntry.COLUMN_PET_WEIGHT
+                        + " BEGIN " + record + " END;");
+                // The history goes when the compactor purges the pet
+                db.execSQL("CREATE TRIGGER pets_weight_history_after_delete AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + "DELETE FROM " + PetWeightEntry.TABLE_NAME + " WHERE "
+                        + PetWeightEntry.COLUMN_PET_ID + " = old." + PetEntry._ID + "; "
+                        + "DELETE FROM " + PetWeightEntry.ROLLUP_TABLE_NAME + " WHERE "
+                        + PetWeightEntry.COLUMN_PET_ID + " = old." + PetEntry._ID + "; END;");
+                // Start the history of the pets that are already there with their weight
+                db.execSQL("INSERT INTO " + PetWeightEntry.TABLE_NAME + " ("
+                        + PetWeightEntry.COLUMN_PET_ID + ", " + PetWeightEntry.COLUMN_TIME + ", "
+                        + PetWeightEntry.COLUMN_WEIGHT + ") SELECT " + PetEntry._ID + ", "
+                        + SQL_NOW_MS + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + SELECTION_LIVE + " AND "
+                        + PetEntry.COLUMN_PET_WEIGHT + " > 0;");
+                break;
+            case 10:
+                // Change journal for incremental sync. Triggers append an entry for every
+                // insert, update and delete of a pet, so the journal can't miss a write whatever
+                // path it took. The sequence number is AUTOINCREMENT, so it keeps growing after
+                // acknowledged entries are dropped.
+                db.execSQL("CREATE TABLE " + PetChangeEntry.TABLE_NAME + " ("
+                        + PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                        + PetChangeEntry.COLUMN_OP + " INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + META_TABLE_NAME + " VALUES ('"
+                        + META_KEY_CHANGES_ACKNOWLEDGED + "', 0);");
+                db.execSQL("CREATE TRIGGER pets_changes_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + journal("new." + PetEntry._ID, PetChangeEntry.OP_INSERT) + " END;");
+                db.execSQL("CREATE TRIGGER pets_changes_after_update AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetEntry.COLUMN_PET_PHOTO + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + liveRow("new") + " BEGIN "
+                        + journal("new." + PetEntry._ID, PetChangeEntry.OP_UPDATE) + " END;");
+                db.execSQL("CREATE TRIGGER pets_changes_after_soft_delete AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + liveRow("old") + " AND new."
+                        + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL BEGIN "
+                        + journal("old." + PetEntry._ID, PetChangeEntry.OP_DELETE) + " END;");
+                // "Delete all" only moves the watermark, so it is journaled as one entry
+                // carrying the new watermark instead of one entry per pet. Purging tombstones
+                // isn't journaled at all: those pets were journaled when they were deleted.
+                db.execSQL("CREATE TRIGGER pets_changes_after_delete_all AFTER UPDATE OF value ON "
+                        + META_TABLE_NAME + " WHEN new.key = '" + META_KEY_DELETE_ALL_WATERMARK
+                        + "' AND new.value > old.value BEGIN "
+                        + journal("new.value", PetChangeEntry.OP_DELETE_ALL) + " END;");
+                // Journal the pets that are already there, so the first pull is a full copy
+                db.execSQL("INSERT INTO " + PetChangeEntry.TABLE_NAME + " ("
+                        + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_OP
+                        + ") SELECT " + PetEntry._ID + ", " + PetChangeEntry.OP_INSERT + " FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + SELECTION_LIVE
+                        + " ORDER BY " + PetEntry._ID + ";");
+                break;
+            case 11:
+                // Databases created before onConfigure set auto_vacuum ahead of write-ahead
+                // logging are still without auto vacuum, and only a VACUUM converts them.
+                // onOpen runs it once the upgrade transaction has committed.
+                if (getAutoVacuum(db) != AUTO_VACUUM_INCREMENTAL) {
+                    db.execSQL("INSERT OR REPLACE INTO " + META_TABLE_NAME + " VALUES ('"
+                            + META_KEY_VACUUM_PENDING + "', 1);");
+                }
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
     }
 }
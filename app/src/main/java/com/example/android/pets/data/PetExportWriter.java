@@ -0,0 +1,222 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the whole pets table into the pipe opened by {@link PetProvider#openFile} for the
+ * export URI, as CSV or as a JSON array.
+ * <p>
+ * The table is read in chunks of {@link #CHUNK_SIZE} rows ordered by _id, each chunk starting
+ * after the last _id of the previous one, so only one small cursor is open at a time. Text
+ * columns are copied from the cursor into a reused buffer and encoded straight into the
+ * buffered pipe writer, without building a String per value or per row.
+ */
+class PetExportWriter implements ContentProvider.PipeDataWriter<String> {
+
+    /** Rows read per query */
+    private static final int CHUNK_SIZE = 500;
+
+    /** Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT};
+
+    private final PetDbHelper mDbHelper;
+
+    PetExportWriter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, String format) {
+        boolean json = PetEntry.FORMAT_JSON.equals(format);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+
+        try {
+            if (json) {
+                writer.write('[');
+            } else {
+                writer.write(PetEntry._ID + "," + PetEntry.COLUMN_PET_NAME + ","
+                        + PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_GENDER + ","
+                        + PetEntry.COLUMN_PET_WEIGHT + "\n");
+            }
+
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            String[] args = new String[1];
+            long lastId = 0;
+            boolean first = true;
+            int rows;
+            do {
+                args[0] = String.valueOf(lastId);
+                Cursor cursor = database.query(PetEntry.TABLE_NAME, COLUMNS,
+                        PetEntry._ID + " > ? AND " + PetDbHelper.SELECTION_LIVE, args,
+                        null, null, PetEntry._ID,
+                        String.valueOf(CHUNK_SIZE));
+                try {
+                    rows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        if (json) {
+                            writeJsonRow(writer, cursor, buffer, first);
+                        } else {
+                            writeCsvRow(writer, cursor, buffer);
+                        }
+                        first = false;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rows == CHUNK_SIZE);
+
+            if (json) {
+                writer.write("]\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early
+            Log.w(PetProvider.LOG_TAG, "Export of " + uri + " stopped", e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Nothing left to do, the pipe is gone either way
+            }
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor, CharArrayBuffer buffer)
+            throws IOException {
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(',');
+        writeCsvText(writer, cursor, 1, buffer);
+        writer.write(',');
+        writeCsvText(writer, cursor, 2, buffer);
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('\n');
+    }
+
+    /**
+     * Write a text column as a CSV field, quoting it only if it contains a separator, a quote or
+     * a line break. Null is written as an empty field.
+     */
+    private static void writeCsvText(Writer writer, Cursor cursor, int column,
+                                     CharArrayBuffer buffer) throws IOException {
+        cursor.copyStringToBuffer(column, buffer);
+        char[] data = buffer.data;
+        int size = buffer.sizeCopied;
+
+        boolean needsQuotes = false;
+        for (int i = 0; i < size && !needsQuotes; i++) {
+            char c = data[i];
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            writer.write(data, 0, size);
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < size; i++) {
+            if (data[i] == '"') {
+                writer.write('"');
+            }
+            writer.write(data[i]);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor, CharArrayBuffer buffer,
+                                     boolean first) throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write("\n{\"" + PetEntry._ID + "\":");
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(",\"" + PetEntry.COLUMN_PET_NAME + "\":");
+        writeJsonText(writer, cursor, 1, buffer);
+        writer.write(",\"" + PetEntry.COLUMN_PET_BREED + "\":");
+        writeJsonText(writer, cursor, 2, buffer);
+        writer.write(",\"" + PetEntry.COLUMN_PET_GENDER + "\":");
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(",\"" + PetEntry.COLUMN_PET_WEIGHT + "\":");
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('}');
+    }
+
+    /**
+     * Write a text column as a JSON string, or null.
+     */
+    private static void writeJsonText(Writer writer, Cursor cursor, int column,
+                                      CharArrayBuffer buffer) throws IOException {
+        if (cursor.isNull(column)) {
+            writer.write("null");
+            return;
+        }
+        cursor.copyStringToBuffer(column, buffer);
+        char[] data = buffer.data;
+        int size = buffer.sizeCopied;
+
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < size; i++) {
+            char c = data[i];
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            // Flush the plain run before the character that needs escaping
+            writer.write(data, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+        }
+        writer.write(data, start, size - start);
+        writer.write('"');
+    }
+}
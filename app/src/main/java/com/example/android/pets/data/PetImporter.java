@@ -0,0 +1,426 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams pets from a CSV or JSON file into the {@link PetProvider}.
+ * <p>
+ * The file is parsed record by record on one background thread while a second thread writes
+ * complete batches with {@link ContentResolver#bulkInsert}. At most {@link #QUEUED_BATCHES}
+ * batches wait between the two, so memory use doesn't depend on the size of the file.
+ * <p>
+ * CSV files need a header row naming the columns (name, breed, gender, weight), in any order
+ * and any case.
+ * JSON files hold an array of objects with the same keys. Gender may be given as its number or
+ * as "male", "female" or "unknown". Records failing the provider's validation are skipped.
+ */
+public class PetImporter {
+
+    /**
+     * Callbacks about an import, all called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called after every batch written to the provider.
+         */
+        void onProgress(long rowsImported, long rowsSkipped);
+
+        void onComplete(long rowsImported, long rowsSkipped, long rowsPerSecond);
+
+        void onError(Exception e);
+    }
+
+    /** Number of rows written per bulk insert by default */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Batches parsed ahead of the writer */
+    private static final int QUEUED_BATCHES = 2;
+
+    /** Placed in the queue after the last batch */
+    private static final ContentValues[] END_OF_FILE = new ContentValues[0];
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    private final ContentResolver mResolver;
+    private final int mBatchSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public PetImporter(Context context) {
+        this(context, DEFAULT_BATCH_SIZE);
+    }
+
+    public PetImporter(Context context, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        mResolver = context.getApplicationContext().getContentResolver();
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Import the pets of the given file in the background, reporting to the given listener.
+     */
+    public void importFrom(final Uri source, final Listener listener) {
+        final Import task = new Import(listener);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.write();
+            }
+        });
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.parse(source);
+            }
+        });
+    }
+
+    /**
+     * State shared by the parsing and the writing thread of one import.
+     */
+    private class Import {
+        private final Listener mListener;
+        private final BlockingQueue<ContentValues[]> mQueue =
+                new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        private final long mStartTime = SystemClock.elapsedRealtime();
+
+        //first failure of either thread; once set, both stop
+        private volatile Exception mFailure;
+        //written by the parsing thread only
+        private volatile long mRowsSkipped;
+
+        private ContentValues[] mBatch;
+        private int mBatchCount;
+
+        Import(Listener listener) {
+            mListener = listener;
+        }
+
+        void parse(Uri source) {
+            try {
+                InputStream in = mResolver.openInputStream(source);
+                if (in == null) {
+                    throw new IOException("Cannot open " + source);
+                }
+                try {
+                    BufferedInputStream buffered = new BufferedInputStream(in);
+                    boolean json = isJson(buffered);
+                    Reader reader = new InputStreamReader(buffered, UTF_8);
+                    if (json) {
+                        parseJson(reader);
+                    } else {
+                        parseCsv(new BufferedReader(reader));
+                    }
+                } finally {
+                    in.close();
+                }
+                flush();
+                enqueue(END_OF_FILE);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        void write() {
+            long rowsImported = 0;
+            try {
+                while (mFailure == null) {
+                    ContentValues[] batch = mQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
+                        continue;
+                    }
+                    if (batch == END_OF_FILE) {
+                        long elapsed = Math.max(SystemClock.elapsedRealtime() - mStartTime, 1);
+                        postComplete(rowsImported, mRowsSkipped, rowsImported * 1000 / elapsed);
+                        return;
+                    }
+                    rowsImported += mResolver.bulkInsert(PetEntry.CONTENT_URI, batch);
+                    postProgress(rowsImported, mRowsSkipped);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Peek at the first non blank byte: JSON files start with an array.
+         */
+        private boolean isJson(BufferedInputStream in) throws IOException {
+            in.mark(1024);
+            try {
+                int c;
+                do {
+                    c = in.read();
+                } while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xEF
+                        || c == 0xBB || c == 0xBF);
+                return c == '[';
+            } finally {
+                in.reset();
+            }
+        }
+
+        private void parseJson(Reader reader) throws IOException, InterruptedException {
+            JsonReader json = new JsonReader(reader);
+            json.beginArray();
+            while (json.hasNext()) {
+                String name = null;
+                String breed = null;
+                String gender = null;
+                String weight = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String key = json.nextName();
+                    if (json.peek() == JsonToken.NULL) {
+                        json.nextNull();
+                    } else if (PetEntry.COLUMN_PET_NAME.equals(key)) {
+                        name = json.nextString();
+                    } else if (PetEntry.COLUMN_PET_BREED.equals(key)) {
+                        breed = json.nextString();
+                    } else if (PetEntry.COLUMN_PET_GENDER.equals(key)) {
+                        gender = json.nextString();
+                    } else if (PetEntry.COLUMN_PET_WEIGHT.equals(key)) {
+                        weight = json.nextString();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                addRecord(name, breed, gender, weight);
+            }
+            json.endArray();
+        }
+
+        private void parseCsv(BufferedReader reader) throws IOException, InterruptedException {
+            ArrayList<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+
+            // The header tells which field holds which column
+            if (!readCsvRecord(reader, fields, field)) {
+                return;
+            }
+            // Spreadsheets saving "UTF-8 CSV" start the file with a byte order mark
+            if (!fields.isEmpty() && fields.get(0).startsWith(BYTE_ORDER_MARK)) {
+                fields.set(0, fields.get(0).substring(BYTE_ORDER_MARK.length()));
+            }
+            int nameIndex = indexOfColumn(fields, PetEntry.COLUMN_PET_NAME);
+            int breedIndex = indexOfColumn(fields, PetEntry.COLUMN_PET_BREED);
+            int genderIndex = indexOfColumn(fields, PetEntry.COLUMN_PET_GENDER);
+            int weightIndex = indexOfColumn(fields, PetEntry.COLUMN_PET_WEIGHT);
+
+            while (readCsvRecord(reader, fields, field)) {
+                // Skip blank lines
+                if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue;
+                }
+                addRecord(getField(fields, nameIndex), getField(fields, breedIndex),
+                        getField(fields, genderIndex), getField(fields, weightIndex));
+            }
+        }
+
+        /**
+         * Map a record to pet columns and queue it, or count it as skipped if it doesn't pass
+         * the same checks as {@link PetProvider#insert}.
+         */
+        private void addRecord(String name, String breed, String gender, String weight)
+                throws InterruptedException {
+            Integer genderValue = parseGender(gender);
+            Integer weightValue = weight == null || weight.isEmpty() ? Integer.valueOf(0)
+                    : parseInteger(weight);
+            if (name == null || genderValue == null || !PetEntry.isValidGender(genderValue)
+                    || weightValue == null || !PetEntry.isValidWeight(weightValue)) {
+                mRowsSkipped++;
+                return;
+            }
+
+            ContentValues values = new ContentValues(4);
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+            values.put(PetEntry.COLUMN_PET_BREED, breed == null || breed.isEmpty() ? null : breed);
+            values.put(PetEntry.COLUMN_PET_GENDER, genderValue);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, weightValue);
+
+            if (mBatch == null) {
+                mBatch = new ContentValues[mBatchSize];
+            }
+            mBatch[mBatchCount++] = values;
+            if (mBatchCount == mBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Hand the current batch, if any, to the writer.
+         */
+        private void flush() throws InterruptedException {
+            if (mBatchCount == 0) {
+                return;
+            }
+            ContentValues[] batch = mBatch;
+            if (mBatchCount < mBatchSize) {
+                batch = new ContentValues[mBatchCount];
+                System.arraycopy(mBatch, 0, batch, 0, mBatchCount);
+            }
+            mBatch = null;
+            mBatchCount = 0;
+            enqueue(batch);
+        }
+
+        /**
+         * Wait for room in the queue, giving up if the writer failed meanwhile.
+         */
+        private void enqueue(ContentValues[] batch) throws InterruptedException {
+            while (!mQueue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (mFailure != null) {
+                    throw new InterruptedException("Import aborted");
+                }
+            }
+        }
+
+        private synchronized void fail(final Exception e) {
+            if (mFailure != null) {
+                return;
+            }
+            mFailure = e;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onError(e);
+                }
+            });
+        }
+
+        private void postProgress(final long rowsImported, final long rowsSkipped) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onProgress(rowsImported, rowsSkipped);
+                }
+            });
+        }
+
+        private void postComplete(final long rowsImported, final long rowsSkipped,
+                                  final long rowsPerSecond) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onComplete(rowsImported, rowsSkipped, rowsPerSecond);
+                }
+            });
+        }
+    }
+
+    /**
+     * Read one CSV record into the given list, reusing the given builder for the fields.
+     * Fields may be quoted, in which case they can contain commas, line breaks and doubled
+     * quotes. Return false at the end of the file.
+     */
+    private static boolean readCsvRecord(BufferedReader reader, ArrayList<String> fields,
+                                         StringBuilder field) throws IOException {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean sawAnything = false;
+
+        int c;
+        while ((c = reader.read()) != -1) {
+            sawAnything = true;
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (!sawAnything) {
+            return false;
+        }
+        fields.add(field.toString().trim());
+        return true;
+    }
+
+    /**
+     * Return the index of the header field naming the given column, ignoring case and
+     * surrounding spaces, or -1 if there is none.
+     */
+    private static int indexOfColumn(ArrayList<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String getField(ArrayList<String> fields, int index) {
+        return index >= 0 && index < fields.size() ? fields.get(index) : null;
+    }
+
+    /**
+     * Parse a gender given either as its number or as its English name.
+     */
+    private static Integer parseGender(String gender) {
+        if (gender == null) {
+            return null;
+        }
+        if ("male".equalsIgnoreCase(gender)) {
+            return PetEntry.GENDER_MALE;
+        } else if ("female".equalsIgnoreCase(gender)) {
+            return PetEntry.GENDER_FEMALE;
+        } else if ("unknown".equalsIgnoreCase(gender)) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        return parseInteger(gender);
+    }
+
+    private static Integer parseInteger(String value) {
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the {@link PetProvider} operations, per operation and per
+ * URI matcher code.
+ * <p>
+ * Recording never locks: every value lives in an {@link AtomicLongArray} and is only ever
+ * incremented. Latencies go into histograms with power of two buckets in microseconds, so a
+ * percentile is known up to a factor of two, which is plenty to spot a regression. Reads are
+ * not atomic across values, so a snapshot taken while operations run may be off by the
+ * operations in flight.
+ */
+final class PetMetrics {
+
+    //operations, in the order of OPERATION_NAMES
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int APPLY_BATCH = 5;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch"};
+
+    /** Histogram buckets: bucket b counts latencies below 2^b microseconds */
+    private static final int BUCKETS = 32;
+
+    //layout of the values of one (operation, match) cell
+    private static final int COUNT = 0;
+    private static final int ROWS = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int FIRST_BUCKET = 3;
+    private static final int CELL_SIZE = FIRST_BUCKET + BUCKETS;
+
+    //names of the match slots, the last one collecting unknown URIs
+    private final String[] mMatchNames;
+    private final AtomicLongArray mCells;
+
+    private final AtomicLong mWindowFills = new AtomicLong();
+    private final AtomicLong mNotifications = new AtomicLong();
+
+    private final SQLiteDatabase.CursorFactory mCursorFactory = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                SQLiteQuery query) {
+            return new CountingCursor(driver, editTable, query);
+        }
+    };
+
+    /**
+     * @param matchNames name of each URI matcher code, indexed by match slot
+     */
+    PetMetrics(String[] matchNames) {
+        mMatchNames = new String[matchNames.length + 1];
+        System.arraycopy(matchNames, 0, mMatchNames, 0, matchNames.length);
+        mMatchNames[matchNames.length] = "unknown";
+        mCells = new AtomicLongArray(OPERATION_NAMES.length * mMatchNames.length * CELL_SIZE);
+    }
+
+    /**
+     * Return a cursor factory whose cursors count their window fills in these metrics.
+     */
+    SQLiteDatabase.CursorFactory getCursorFactory() {
+        return mCursorFactory;
+    }
+
+    /**
+     * Record one operation.
+     *
+     * @param operation   one of the operation constants
+     * @param slot        match slot of the URI, anything out of range counts as unknown
+     * @param startNanos  {@link System#nanoTime()} when the operation started
+     * @param rows        rows returned or affected
+     */
+    void record(int operation, int slot, long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        if (slot < 0 || slot >= mMatchNames.length) {
+            slot = mMatchNames.length - 1;
+        }
+        int cell = (operation * mMatchNames.length + slot) * CELL_SIZE;
+        mCells.incrementAndGet(cell + COUNT);
+        mCells.addAndGet(cell + ROWS, rows);
+        mCells.addAndGet(cell + TOTAL_NANOS, nanos);
+        mCells.incrementAndGet(cell + FIRST_BUCKET + bucketOf(nanos / 1000));
+    }
+
+    void recordNotification() {
+        mNotifications.incrementAndGet();
+    }
+
+    /**
+     * Return one row per (operation, match) that was recorded at least once, followed by one
+     * row per counter, with the {@link PetMetricsEntry} columns.
+     */
+    Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                PetMetricsEntry.COLUMN_OPERATION,
+                PetMetricsEntry.COLUMN_MATCH,
+                PetMetricsEntry.COLUMN_COUNT,
+                PetMetricsEntry.COLUMN_ROWS,
+                PetMetricsEntry.COLUMN_TOTAL_MICROS,
+                PetMetricsEntry.COLUMN_P50_MICROS,
+                PetMetricsEntry.COLUMN_P90_MICROS,
+                PetMetricsEntry.COLUMN_P99_MICROS});
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < mMatchNames.length; slot++) {
+                int cell = (operation * mMatchNames.length + slot) * CELL_SIZE;
+                long count = mCells.get(cell + COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[]{
+                        OPERATION_NAMES[operation],
+                        mMatchNames[slot],
+                        count,
+                        mCells.get(cell + ROWS),
+                        mCells.get(cell + TOTAL_NANOS) / 1000,
+                        percentile(cell, count, 50),
+                        percentile(cell, count, 90),
+                        percentile(cell, count, 99)});
+            }
+        }
+        cursor.addRow(new Object[]{PetMetricsEntry.OPERATION_WINDOW_FILL, null,
+                mWindowFills.get(), null, null, null, null, null});
+        cursor.addRow(new Object[]{PetMetricsEntry.OPERATION_NOTIFY, null,
+                mNotifications.get(), null, null, null, null, null});
+        return cursor;
+    }
+
+    /**
+     * Print the same values as {@link #query}, one line per row.
+     */
+    void dump(PrintWriter writer) {
+        Cursor cursor = query();
+        try {
+            writer.println("Provider metrics (latencies in microseconds):");
+            while (cursor.moveToNext()) {
+                writer.print("  ");
+                writer.print(cursor.getString(0));
+                if (!cursor.isNull(1)) {
+                    writer.print(' ');
+                    writer.print(cursor.getString(1));
+                }
+                writer.print(" count=");
+                writer.print(cursor.getLong(2));
+                if (!cursor.isNull(3)) {
+                    writer.print(" rows=");
+                    writer.print(cursor.getLong(3));
+                    writer.print(" total=");
+                    writer.print(cursor.getLong(4));
+                    writer.print(" p50<");
+                    writer.print(cursor.getLong(5));
+                    writer.print(" p90<");
+                    writer.print(cursor.getLong(6));
+                    writer.print(" p99<");
+                    writer.print(cursor.getLong(7));
+                }
+                writer.println();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the upper bound, in microseconds, of the bucket holding the given percentile of
+     * the cell's latencies.
+     */
+    private long percentile(int cell, long count, int percent) {
+        long rank = Math.max((count * percent + 99) / 100, 1);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCells.get(cell + FIRST_BUCKET + bucket);
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    private static int bucketOf(long micros) {
+        // Number of significant bits: 0us goes to bucket 0, 1us to 1, 2-3us to 2, 4-7us to 3...
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * SQLite cursor counting how many times it fills its window, which is when it actually
+     * steps through the query.
+     */
+    private final class CountingCursor extends SQLiteCursor {
+        private boolean mCounted;
+
+        CountingCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+            super(driver, editTable, query);
+        }
+
+        @Override
+        public int getCount() {
+            // The first call fills the first window to count the rows
+            if (!mCounted) {
+                mCounted = true;
+                mWindowFills.incrementAndGet();
+            }
+            return super.getCount();
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            CursorWindow window = getWindow();
+            if (window != null && (newPosition < window.getStartPosition()
+                    || newPosition >= window.getStartPosition() + window.getNumRows())) {
+                mWindowFills.incrementAndGet();
+            }
+            return super.onMove(oldPosition, newPosition);
+        }
+    }
+}
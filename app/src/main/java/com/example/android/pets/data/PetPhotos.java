@@ -0,0 +1,120 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The photo files of the pets. Photos are never stored in the database: each one is a file in
+ * the photos directory, and a pet row only holds its file name in
+ * {@link PetContract.PetEntry#COLUMN_PET_PHOTO}. Pet rows, and the cursor windows holding
+ * them, stay as small as before.
+ * <p>
+ * A photo file is never modified. Replacing a pet's photo copies the new one to a new file,
+ * so a file name also identifies one version of the image, and caches keyed by it never need
+ * invalidating. Files no pet refers to anymore are removed by {@link PetCompactor}.
+ */
+public final class PetPhotos {
+
+    private static final String PHOTO_DIR = "photos";
+
+    /**
+     * Listener told about the outcome of {@link #importPhoto}, on the main thread.
+     */
+    public interface Callback {
+        void onPhotoImported(String photo);
+
+        void onError(IOException e);
+    }
+
+    //copies run one at a time, off the main thread
+    private static final Executor sCopyExecutor = Executors.newSingleThreadExecutor();
+
+    private PetPhotos() {
+    }
+
+    /**
+     * Return the directory holding the photo files, creating it if needed.
+     */
+    public static File getPhotoDir(Context context) {
+        File dir = new File(context.getFilesDir(), PHOTO_DIR);
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    /**
+     * Return the file of the given photo name.
+     */
+    public static File getPhotoFile(Context context, String photo) {
+        return new File(getPhotoDir(context), photo);
+    }
+
+    /**
+     * Copy the image behind the given URI to a new photo file in the background, and pass the
+     * name of that file to the callback.
+     */
+    public static void importPhoto(Context context, final Uri source, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        sCopyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String photo = copy(appContext, source);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onPhotoImported(photo);
+                        }
+                    });
+                } catch (final IOException e) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private static String copy(Context context, Uri source) throws IOException {
+        String photo = UUID.randomUUID().toString() + ".jpg";
+        File file = getPhotoFile(context, photo);
+        InputStream in = context.getContentResolver().openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+        return photo;
+    }
+}
@@ -1,15 +1,42 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+import com.example.android.pets.data.PetContract.PetSlowQueryEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -31,6 +58,55 @@ public class PetProvider extends ContentProvider {
      */
     private static final int PET_ID = 101;
 
+    /**
+     * URI matcher code for the content URI to search the pets table
+     */
+    private static final int PET_SEARCH = 102;
+
+    /**
+     * URI matcher code for the content URI to export the pets table
+     */
+    private static final int PET_EXPORT = 103;
+
+    /**
+     * URI matcher codes for the content URIs of the overall, per gender and per breed statistics
+     */
+    private static final int PET_STATS = 104;
+    private static final int PET_STATS_GENDER = 105;
+    private static final int PET_STATS_BREED = 106;
+
+    /**
+     * URI matcher code for the content URI of the pets' list rows
+     */
+    private static final int PET_SUMMARY = 107;
+
+    /**
+     * URI matcher code for the content URI of the provider metrics
+     */
+    private static final int PET_METRICS = 108;
+
+    /**
+     * URI matcher code for the content URI of the slow query log
+     */
+    private static final int PET_SLOW_QUERIES = 109;
+
+    /**
+     * URI matcher code for the content URI of a single pet's weight history
+     */
+    private static final int PET_WEIGHTS = 110;
+
+    /**
+     * URI matcher code for the content URI of the change journal
+     */
+    private static final int PET_CHANGES = 111;
+
+    /**
+     * Names of the URI matcher codes in the metrics, indexed by code - {@link #PETS}
+     */
+    private static final String[] MATCH_NAMES = {"pets", "pet_id", "search", "export", "stats",
+            "stats_gender", "stats_breed", "summary", "metrics", "slow_queries", "weights",
+            "changes"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -57,20 +133,223 @@ public class PetProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/pets/search" will map
+        // to the integer code {@link #PET_SEARCH}. The search text is passed as a query parameter.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH, PET_SEARCH);
+
+        // The content URI of the form "content://com.example.android.pets/pets/export" will map
+        // to the integer code {@link #PET_EXPORT}. It is read as a file through openFile().
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+
+        // The content URIs of the form "content://com.example.android.pets/pets/stats",
+        // ".../pets/stats/gender" and ".../pets/stats/breed" will map to the statistics codes.
+        String statsPath = PetContract.PATH_PETS + "/" + PetContract.PATH_STATS;
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, statsPath, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                statsPath + "/" + PetContract.PATH_GENDER, PET_STATS_GENDER);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                statsPath + "/" + PetContract.PATH_BREED, PET_STATS_BREED);
+
+        // The content URI of the form "content://com.example.android.pets/pets/summary" will map
+        // to the integer code {@link #PET_SUMMARY}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY, PET_SUMMARY);
+
+        // The content URI of the form "content://com.example.android.pets/pets/metrics" will map
+        // to the integer code {@link #PET_METRICS}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS, PET_METRICS);
+
+        // The content URI of the form "content://com.example.android.pets/pets/slow_queries"
+        // will map to the integer code {@link #PET_SLOW_QUERIES}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SLOW_QUERIES, PET_SLOW_QUERIES);
+
+        // The content URI of the form "content://com.example.android.pets/pets/3/weights" will
+        // map to the integer code {@link #PET_WEIGHTS}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_WEIGHTS, PET_WEIGHTS);
+
+        // The content URI of the form "content://com.example.android.pets/pets/changes" will map
+        // to the integer code {@link #PET_CHANGES}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PET_CHANGES);
     }
 
+    /**
+     * Columns of the pets table that queries may ask for, also the projection used when none is
+     * given. Anything else in a projection is rejected before it reaches SQLite.
+     */
+    private static final String[] PET_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    private static final Set<String> sPetColumns = new HashSet<>(Arrays.asList(PET_COLUMNS));
+
+    /**
+     * Columns of the list rows returned for {@link #PET_SUMMARY}, plus the weight, which lists
+     * sorted by weight need as their page key
+     */
+    private static final Set<String> sSummaryColumns =
+            new HashSet<>(Arrays.asList(PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+                    PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_PHOTO,
+                    PetEntry.COLUMN_PET_WEIGHT));
+
+    /**
+     * Bulk inserts of at least this many rows checkpoint the write-ahead log right away when
+     * the database is set up for explicit checkpoints
+     */
+    private static final int CHECKPOINT_BATCH_SIZE = 1000;
+
+    /**
+     * Number of single pet rows kept in {@link #mRowCache}
+     */
+    private static final int ROW_CACHE_SIZE = 256;
+
+    /**
+     * Memory budget of {@link #mQueryCache}, in bytes
+     */
+    private static final int QUERY_CACHE_SIZE = 512 * 1024;
+
+    /**
+     * Queries reading from SQLite at the same time. Unlimited, as the catalog's few loaders
+     * never queue up; PetDbConcurrencyBenchmark measures other limits.
+     */
+    private static final int MAX_READERS = PetDbHelper.UNLIMITED_READERS;
+
+    /**
+     * Longest span of measurements an automatic weight history query returns raw, and in daily
+     * buckets. Longer spans come in weekly buckets, so a chart never gets more than a few
+     * hundred points.
+     */
+    private static final long RAW_MAX_SPAN_MS = 31 * PetDbHelper.DAY_MS;
+    private static final long DAY_MAX_SPAN_MS = 2 * 366 * PetDbHelper.DAY_MS;
+
     /** Database helper object */
     private PetDbHelper mDbHelper;
 
+    /** Compiled statements for full row inserts and single pet updates and deletes */
+    private PetStatements mStatements;
+
+    /** Purges deleted pets in the background */
+    private PetCompactor mCompactor;
+
+    /** Opens the database and runs the first catalog query ahead of the catalog */
+    private Thread mPrewarm;
+
+    /** Latencies and counters of the provider operations, exposed through {@link #PET_METRICS} */
+    private final PetMetrics mMetrics = new PetMetrics(MATCH_NAMES);
+
+    /** Queries of the pets table slower than a threshold, off until a threshold is set */
+    private final PetSlowQueryLog mSlowQueryLog = new PetSlowQueryLog();
+
+    /** Cache of recently queried single pets, so reopening a pet in the editor skips SQLite */
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+
+    /** Cache of recent list and search results, so restarting the catalog's loaders skips SQLite */
+    private final PetQueryCache mQueryCache = new PetQueryCache(QUERY_CACHE_SIZE);
+
+    /**
+     * Set while {@link #applyBatch} runs on the current thread, so that the individual operations
+     * don't each notify observers. Their changes are collected here instead, and a single
+     * notification is sent once the batch has committed.
+     */
+    private final ThreadLocal<PetChanges> mBatchChanges = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new PetDbHelper(getContext());
+        // Cursors from the helper count their window fills in the metrics
+        mDbHelper = new PetDbHelper(getContext(), true, PetDbHelper.DEFAULT_AUTO_CHECKPOINT_PAGES,
+                MAX_READERS, mMetrics.getCursorFactory());
+        mStatements = new PetStatements(mDbHelper);
+        mCompactor = new PetCompactor(mDbHelper, PetPhotos.getPhotoDir(getContext()));
+        // Finish any compaction the previous process didn't get to
+        mCompactor.schedule();
+
+        // onCreate runs on the main thread before any activity, so the database isn't opened
+        // here but while the catalog inflates its layout
+        mPrewarm = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                prewarm();
+            }
+        }, "PetProvider prewarm");
+        mPrewarm.start();
         return true;
     }
 
+    /**
+     * Wait for the prewarm query, stop the compactor and close the database. The system never
+     * calls this; it is meant for tests and benchmarks that create their own provider, which
+     * must not find a background thread of the previous one reopening the database.
+     */
+    @Override
+    public void shutdown() {
+        boolean interrupted = false;
+        while (mPrewarm.isAlive()) {
+            try {
+                mPrewarm.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mCompactor.shutdown();
+        mDbHelper.close();
+    }
+
+    /**
+     * Open the database, creating or migrating it if needed, and run the catalog's first page
+     * query, which leaves its result in {@link #mQueryCache} and its pages in SQLite's cache.
+     * A query arriving meanwhile waits for the open instead of opening the database again.
+     */
+    private void prewarm() {
+        Trace.beginSection("PetProvider.prewarm");
+        long start = SystemClock.uptimeMillis();
+        try {
+            Cursor cursor = query(PetEntry.buildCatalogPageUri(0), PetEntry.SUMMARY_COLUMNS,
+                    null, null, null);
+            cursor.close();
+            Log.i(LOG_TAG, "Database prewarmed in " + (SystemClock.uptimeMillis() - start)
+                    + " ms");
+        } catch (SQLiteException e) {
+            // The first real query will open the database and report the problem
+            Log.w(LOG_TAG, "Failed to prewarm the database", e);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        // Held until the query has been recorded, which counts the cursor and so fills its
+        // first window: that's when SQLite runs the query on a connection
+        mDbHelper.beginRead();
+        try {
+            return queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            mDbHelper.endRead();
+        }
+    }
+
+    /**
+     * Run the query of the given URI and record it in the metrics.
+     */
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        long startNanos = System.nanoTime();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -81,13 +360,20 @@ public class PetProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                projection = checkProjection(uri, projection, sPetColumns, PET_COLUMNS);
+                cursor = queryCached(database, uri, match, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            case PET_SUMMARY:
+                // Always the narrow list columns, so the rows come from the covering index and
+                // fill the smallest possible cursor window
+                projection = checkProjection(uri, projection, sSummaryColumns,
+                        PetEntry.SUMMARY_COLUMNS);
+                cursor = queryCached(database, uri, match, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             case PET_ID:
+                projection = checkProjection(uri, projection, sPetColumns, PET_COLUMNS);
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -99,11 +385,44 @@ public class PetProvider extends ContentProvider {
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
+                cursor = queryPetById(database, ContentUris.parseId(uri), projection);
+                if (cursor != null) {
+                    break;
+                }
+
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = runQuery(database, projection, whereLive(selection), selectionArgs,
+                        sortOrder, null);
+                break;
+            case PET_SEARCH:
+                projection = checkProjection(uri, projection, sPetColumns, PET_COLUMNS);
+                cursor = queryCached(database, uri, match, projection, selection, selectionArgs,
+                        sortOrder);
+                // Search results depend on every pet, so watch the whole pets URI rather than
+                // the search URI, which isn't a parent of the per-pet URIs.
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                return recordQuery(match, startNanos, cursor);
+            case PET_STATS:
+            case PET_STATS_GENDER:
+            case PET_STATS_BREED:
+                cursor = queryStats(database, match, sortOrder);
+                // Statistics change with every pet
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                return recordQuery(match, startNanos, cursor);
+            case PET_METRICS:
+                // Not recorded itself, so reading the metrics doesn't change them
+                return mMetrics.query();
+            case PET_SLOW_QUERIES:
+                return mSlowQueryLog.query();
+            case PET_WEIGHTS:
+                cursor = queryWeights(database, uri);
                 break;
+            case PET_CHANGES:
+                cursor = queryChanges(database, uri);
+                // New changes come from writes of any pet
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                return recordQuery(match, startNanos, cursor);
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -111,18 +430,648 @@ public class PetProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Callers watching changes themselves can opt out.
+        if (!"false".equals(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_NOTIFY))) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
 
         // Return the cursor
+        return recordQuery(match, startNanos, cursor);
+    }
+
+    /**
+     * Record a query which started at the given time and returned the given cursor in the
+     * metrics, and return the cursor.
+     */
+    private Cursor recordQuery(int match, long startNanos, Cursor cursor) {
+        mMetrics.record(PetMetrics.QUERY, match - PETS, startNanos, cursor.getCount());
         return cursor;
     }
 
+    /**
+     * Throw an {@link IllegalArgumentException} if the given projection asks for a column that
+     * isn't in the given set. Return the projection, or the given default one if it is null.
+     */
+    private static String[] checkProjection(Uri uri, String[] projection, Set<String> columns,
+                                            String[] defaultProjection) {
+        if (projection == null) {
+            return defaultProjection;
+        }
+        for (String column : projection) {
+            if (!columns.contains(column)) {
+                throw new IllegalArgumentException("Unknown column " + column + " for " + uri);
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Return the given selection restricted to the pets that weren't deleted.
+     */
+    private static String whereLive(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return PetDbHelper.SELECTION_LIVE;
+        }
+        return "(" + selection + ") AND " + PetDbHelper.SELECTION_LIVE;
+    }
+
+    /**
+     * Answer a list or search query from {@link #mQueryCache}, running it and caching its result
+     * first if it isn't there yet.
+     */
+    private Cursor queryCached(SQLiteDatabase database, Uri uri, int match, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        String key = PetQueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+        Cursor cursor = mQueryCache.query(key);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        Cursor result;
+        if (match == PET_SEARCH) {
+            result = searchPets(database, uri, projection, selection, selectionArgs, sortOrder);
+        } else {
+            result = queryPets(database, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        Cursor snapshot;
+        try {
+            snapshot = mQueryCache.put(key, result, generation);
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        if (snapshot == null) {
+            // Too large to cache, so read straight from SQLite
+            return result;
+        }
+        result.close();
+        return snapshot;
+    }
+
+    /**
+     * Query the pets table for the PETS and PET_SUMMARY codes.
+     */
+    private Cursor queryPets(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder) {
+        // If the caller asked for a single page, use keyset pagination instead of
+        // returning the whole table.
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            return queryPage(database, uri, projection, selection, selectionArgs, limit);
+        }
+
+        // Otherwise query the pets table directly with the given projection, selection,
+        // selection arguments, and sort order. The cursor could contain multiple rows of the
+        // pets table.
+        StringBuilder where = new StringBuilder(whereLive(selection));
+        ArrayList<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+        appendFilters(uri, where, args);
+        return runQuery(database, projection, where.toString(),
+                args.toArray(new String[args.size()]), sortOrder, null);
+    }
+
+    /**
+     * Add the conditions of the gender and breed query parameters of the given URI, if any.
+     * Both are equality tests on the leading column of an index.
+     */
+    private static void appendFilters(Uri uri, StringBuilder where, ArrayList<String> args) {
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+        if (gender != null) {
+            if (!PetEntry.isValidGender(parseInt(gender, -1))) {
+                throw new IllegalArgumentException("Invalid gender " + gender + " for " + uri);
+            }
+            where.append(" AND ").append(PetEntry.COLUMN_PET_GENDER).append(" = ?");
+            args.add(gender);
+        }
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+        if (breed != null) {
+            if (breed.isEmpty()) {
+                throw new IllegalArgumentException("Empty breed for " + uri);
+            }
+            where.append(" AND ").append(PetEntry.COLUMN_PET_BREED).append(" = ?");
+            args.add(breed);
+        }
+    }
+
+    /**
+     * Run a query of the pets table, timing it for the slow query log when the log is enabled.
+     */
+    private Cursor runQuery(SQLiteDatabase database, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection,
+                selection, null, null, sortOrder, limit);
+        if (!mSlowQueryLog.isEnabled()) {
+            return database.rawQuery(sql, selectionArgs);
+        }
+
+        long startNanos = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        // SQLite only runs the query when the cursor fills its first window
+        cursor.getCount();
+        mSlowQueryLog.onQueryFinished(database, sql, selectionArgs,
+                System.nanoTime() - startNanos);
+        return cursor;
+    }
+
+    /**
+     * Return the given columns of a single pet from {@link #mRowCache}, reading the whole row
+     * into the cache first if it isn't there yet. Return null if the projection can't be
+     * served from the cache, so the caller falls back to a plain query.
+     */
+    private Cursor queryPetById(SQLiteDatabase database, long id, String[] projection) {
+        if (!PetRowCache.canServe(projection)) {
+            return null;
+        }
+        Cursor cursor = mRowCache.query(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long version = mRowCache.getVersion();
+        Cursor row = database.query(PetEntry.TABLE_NAME, PetRowCache.COLUMNS,
+                whereLive(PetEntry._ID + "=?"), new String[]{String.valueOf(id)},
+                null, null, null);
+        try {
+            if (!row.moveToFirst()) {
+                return null;
+            }
+            return mRowCache.put(id, row, version, projection);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Query one page of pets using keyset pagination. Rather than skipping rows with an OFFSET,
+     * which makes SQLite walk every skipped row, a page starts right after the sort key and _id
+     * of the last row the caller has already seen. The cost of a page therefore only depends on
+     * the page size, not on how deep into the table it is. The caller's sort order is replaced
+     * by the page order, with _id as the tie breaker.
+     * <p>
+     * Each order and filter has an index starting with the filtered columns and followed by
+     * the sort key, so SQLite seeks to the first row of the page and reads it in order:
+     * <ul>
+     * <li>no filter: the table itself for _id, and the live name and weight indexes</li>
+     * <li>gender: the live gender index for _id (entries are in _id order within a gender),
+     * the live gender and name index, and the gender and weight index</li>
+     * <li>breed, with or without gender: the live breed and name index; a breed only holds a
+     * few pets, so the other orders sort them on the fly</li>
+     * </ul>
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String limit) {
+        int pageSize = parseInt(limit, -1);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + limit + " for " + uri);
+        }
+
+        // Figure out which column the pages are ordered by. A null key column means the pages
+        // are ordered by _id alone.
+        String keyColumn;
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if (sort == null || PetEntry.SORT_ID.equals(sort)) {
+            keyColumn = null;
+        } else if (PetEntry.SORT_NAME.equals(sort)) {
+            keyColumn = PetEntry.COLUMN_PET_NAME;
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            keyColumn = PetEntry.COLUMN_PET_WEIGHT;
+        } else {
+            throw new IllegalArgumentException("Unknown sort order " + sort + " for " + uri);
+        }
+
+        StringBuilder where = new StringBuilder(whereLive(selection));
+        ArrayList<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+        appendFilters(uri, where, args);
+
+        // Only return rows after the last one of the previous page
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            if (parseLong(afterId, -1) < 0) {
+                throw new IllegalArgumentException("Invalid page key " + afterId + " for " + uri);
+            }
+            where.append(" AND ");
+            if (keyColumn == null) {
+                where.append(PetEntry._ID).append(" > ?");
+                args.add(afterId);
+            } else {
+                String afterKey = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Missing page key for " + uri);
+                }
+                // "key >= ?" lets SQLite seek the index to the page, the OR only skips the
+                // rows sharing the last key that were already seen
+                where.append(keyColumn).append(" >= ? AND (")
+                        .append(keyColumn).append(" > ? OR ")
+                        .append(PetEntry._ID).append(" > ?)");
+                args.add(afterKey);
+                args.add(afterKey);
+                args.add(afterId);
+            }
+        }
+
+        String orderBy = keyColumn == null ? PetEntry._ID : keyColumn + ", " + PetEntry._ID;
+        return runQuery(database, projection, where.toString(),
+                args.toArray(new String[args.size()]),
+                orderBy, String.valueOf(pageSize));
+    }
+
+    /**
+     * Search pets whose name or breed contain words starting with each of the words in the
+     * search query parameter. The lookup goes through the full-text index, so it doesn't scan
+     * the pets table no matter how big it is.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        String match = buildPrefixMatch(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SEARCH));
+
+        StringBuilder where = new StringBuilder(whereLive(selection));
+        ArrayList<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+        // An empty search matches every pet
+        if (match != null) {
+            where.append(" AND ");
+            where.append(PetEntry._ID).append(" IN (SELECT docid FROM ")
+                    .append(PetEntry.FTS_TABLE_NAME).append(" WHERE ")
+                    .append(PetEntry.FTS_TABLE_NAME).append(" MATCH ?)");
+            args.add(match);
+        }
+
+        return runQuery(database, projection, where.toString(),
+                args.toArray(new String[args.size()]),
+                sortOrder,
+                uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+    }
+
+    /**
+     * Query the statistics for the given URI matcher code. Counts and sums come from the
+     * summary tables kept up to date by triggers, so they cost one row per group. Minimums and
+     * maximums are single index lookups. Percentiles walk the weight index up to the requested
+     * rank, which reads index entries only and never the pets rows.
+     */
+    private Cursor queryStats(SQLiteDatabase database, int match, String sortOrder) {
+        String avgWeight = "CAST(" + PetStatsEntry.COLUMN_WEIGHT_SUM + " AS REAL) / "
+                + PetStatsEntry.COLUMN_COUNT + " AS " + PetStatsEntry.COLUMN_AVG_WEIGHT;
+        if (TextUtils.isEmpty(sortOrder)) {
+            sortOrder = PetStatsEntry.COLUMN_COUNT + " DESC";
+        }
+
+        switch (match) {
+            case PET_STATS_GENDER:
+                // The (gender, weight) index answers the minimum and maximum of each gender
+                return database.rawQuery("SELECT "
+                        + PetStatsEntry.COLUMN_GENDER + ", "
+                        + PetStatsEntry.COLUMN_COUNT + ", "
+                        + avgWeight + ", "
+                        + "(SELECT MIN(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = s."
+                        + PetStatsEntry.COLUMN_GENDER + " AND " + PetDbHelper.SELECTION_LIVE
+                        + ") AS " + PetStatsEntry.COLUMN_MIN_WEIGHT
+                        + ", "
+                        + "(SELECT MAX(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = s."
+                        + PetStatsEntry.COLUMN_GENDER + " AND " + PetDbHelper.SELECTION_LIVE
+                        + ") AS " + PetStatsEntry.COLUMN_MAX_WEIGHT
+                        + " FROM " + PetStatsEntry.GENDER_TABLE_NAME + " s"
+                        + " ORDER BY " + sortOrder, null);
+            case PET_STATS_BREED:
+                return database.rawQuery("SELECT "
+                        + PetStatsEntry.COLUMN_BREED + ", "
+                        + PetStatsEntry.COLUMN_COUNT + ", "
+                        + avgWeight
+                        + " FROM " + PetStatsEntry.BREED_TABLE_NAME
+                        + " ORDER BY " + sortOrder, null);
+            default:
+                break;
+        }
+
+        long count = DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                + PetStatsEntry.COLUMN_COUNT + "), 0) FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME, null);
+        long weightSum = DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + "), 0) FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME, null);
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                PetStatsEntry.COLUMN_COUNT,
+                PetStatsEntry.COLUMN_AVG_WEIGHT,
+                PetStatsEntry.COLUMN_MIN_WEIGHT,
+                PetStatsEntry.COLUMN_MAX_WEIGHT,
+                PetStatsEntry.COLUMN_MEDIAN_WEIGHT,
+                PetStatsEntry.COLUMN_P90_WEIGHT,
+                PetStatsEntry.COLUMN_P99_WEIGHT}, 1);
+        if (count == 0) {
+            cursor.addRow(new Object[]{0, null, null, null, null, null, null});
+            return cursor;
+        }
+        cursor.addRow(new Object[]{
+                count,
+                (double) weightSum / count,
+                weightAtRank(database, 0),
+                weightAtRank(database, count - 1),
+                weightAtRank(database, (count - 1) * 50 / 100),
+                weightAtRank(database, (count - 1) * 90 / 100),
+                weightAtRank(database, (count - 1) * 99 / 100)});
+        return cursor;
+    }
+
+    /**
+     * Return the weight of the pet at the given rank (0 is the lightest) using the weight index,
+     * which only holds pets that weren't deleted.
+     */
+    private static long weightAtRank(SQLiteDatabase database, long rank) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + PetEntry.COLUMN_PET_WEIGHT
+                + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SELECTION_LIVE
+                + " ORDER BY " + PetEntry.COLUMN_PET_WEIGHT
+                + " LIMIT 1 OFFSET " + rank, null);
+    }
+
+    /**
+     * Query the weight history of the pet of the given weights URI, between the times of its
+     * from and to query parameters. Raw measurements are read from the (pet, time) index, and
+     * daily and weekly buckets from the rollups, which hold one row per bucket however many
+     * measurements fell into it. Either way the query seeks to the start of the range and
+     * reads it in order, from the index alone.
+     */
+    private static Cursor queryWeights(SQLiteDatabase database, Uri uri) {
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        long from = parseTime(uri, PetWeightEntry.QUERY_PARAMETER_FROM, 0);
+        long to = parseTime(uri, PetWeightEntry.QUERY_PARAMETER_TO, Long.MAX_VALUE);
+        String bucket = uri.getQueryParameter(PetWeightEntry.QUERY_PARAMETER_BUCKET);
+        if (bucket == null) {
+            bucket = PetWeightEntry.BUCKET_AUTO;
+        } else if (!PetWeightEntry.isValidBucket(bucket)) {
+            throw new IllegalArgumentException("Unknown bucket " + bucket + " for " + uri);
+        }
+
+        // A deleted pet keeps its history until the compactor purges it, but doesn't show it
+        if (from >= to || !isLivePet(database, petId)) {
+            return new MatrixCursor(PetWeightEntry.HISTORY_COLUMNS, 0);
+        }
+        if (PetWeightEntry.BUCKET_AUTO.equals(bucket)) {
+            bucket = chooseBucket(database, petId, from, to);
+        }
+
+        if (PetWeightEntry.BUCKET_RAW.equals(bucket)) {
+            // Each measurement is a bucket of its own
+            String weight = PetWeightEntry.COLUMN_WEIGHT;
+            return database.rawQuery("SELECT "
+                    + PetWeightEntry.COLUMN_TIME + ", "
+                    + "1 AS " + PetWeightEntry.COLUMN_COUNT + ", "
+                    + weight + " AS " + PetWeightEntry.COLUMN_MIN_WEIGHT + ", "
+                    + weight + " AS " + PetWeightEntry.COLUMN_MAX_WEIGHT + ", "
+                    + weight + " AS " + PetWeightEntry.COLUMN_AVG_WEIGHT
+                    + " FROM " + PetWeightEntry.TABLE_NAME
+                    + " WHERE " + PetWeightEntry.COLUMN_PET_ID + " = ? AND "
+                    + PetWeightEntry.COLUMN_TIME + " >= ? AND "
+                    + PetWeightEntry.COLUMN_TIME + " < ?"
+                    + " ORDER BY " + PetWeightEntry.COLUMN_TIME,
+                    new String[]{String.valueOf(petId), String.valueOf(from), String.valueOf(to)});
+        }
+
+        // Buckets starting up to one period before the range still overlap it
+        long period = PetWeightEntry.BUCKET_DAY.equals(bucket)
+                ? PetDbHelper.DAY_MS : PetDbHelper.WEEK_MS;
+        return database.rawQuery("SELECT "
+                + "start AS " + PetWeightEntry.COLUMN_TIME + ", "
+                + "count AS " + PetWeightEntry.COLUMN_COUNT + ", "
+                + "min AS " + PetWeightEntry.COLUMN_MIN_WEIGHT + ", "
+                + "max AS " + PetWeightEntry.COLUMN_MAX_WEIGHT + ", "
+                + "CAST(sum AS REAL) / count AS " + PetWeightEntry.COLUMN_AVG_WEIGHT
+                + " FROM " + PetWeightEntry.ROLLUP_TABLE_NAME
+                + " WHERE " + PetWeightEntry.COLUMN_PET_ID + " = ? AND period = ? AND "
+                + "start > ? AND start < ?"
+                + " ORDER BY start",
+                new String[]{String.valueOf(petId), String.valueOf(period),
+                        String.valueOf(from - period), String.valueOf(to)});
+    }
+
+    /**
+     * Return the bucket of an automatic weight history query between the given times, based on
+     * the span of the pet's measurements in that range rather than the range itself, which is
+     * often open ended. Each end of the span is a single lookup in the (pet, time) index.
+     */
+    private static String chooseBucket(SQLiteDatabase database, long petId, long from, long to) {
+        String range = " FROM " + PetWeightEntry.TABLE_NAME
+                + " WHERE " + PetWeightEntry.COLUMN_PET_ID + " = ? AND "
+                + PetWeightEntry.COLUMN_TIME + " >= ? AND "
+                + PetWeightEntry.COLUMN_TIME + " < ?";
+        String[] args = {String.valueOf(petId), String.valueOf(from), String.valueOf(to)};
+        // Both read as 0 when there are no measurements, a span of 0 is returned raw
+        long first = DatabaseUtils.longForQuery(database,
+                "SELECT MIN(" + PetWeightEntry.COLUMN_TIME + ")" + range, args);
+        long last = DatabaseUtils.longForQuery(database,
+                "SELECT MAX(" + PetWeightEntry.COLUMN_TIME + ")" + range, args);
+        long span = last - first;
+        if (span <= RAW_MAX_SPAN_MS) {
+            return PetWeightEntry.BUCKET_RAW;
+        } else if (span <= DAY_MAX_SPAN_MS) {
+            return PetWeightEntry.BUCKET_DAY;
+        }
+        return PetWeightEntry.BUCKET_WEEK;
+    }
+
+    /**
+     * Query the changes since the sequence number of the given changes URI, coalesced to one
+     * row per pet as described in {@link PetChangeEntry#CONTENT_URI}. The journal is read from
+     * its primary key starting right after that number, and each changed pet is a primary key
+     * lookup, so the cost depends on the number of changes and not on the size of the table.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri) {
+        long since = parseSequence(uri, PetChangeEntry.QUERY_PARAMETER_SINCE);
+        long acknowledged = DatabaseUtils.longForQuery(database, "SELECT value FROM "
+                + PetDbHelper.META_TABLE_NAME + " WHERE key = '"
+                + PetDbHelper.META_KEY_CHANGES_ACKNOWLEDGED + "'", null);
+        if (since < acknowledged) {
+            throw new IllegalArgumentException("Changes up to " + acknowledged
+                    + " were acknowledged and dropped, cannot pull " + uri);
+        }
+
+        String seq = PetChangeEntry.COLUMN_SEQUENCE;
+        String petId = PetChangeEntry.COLUMN_PET_ID;
+        String op = PetChangeEntry.COLUMN_OP;
+        // The latest "delete all" since then, if any. Pets up to its watermark are all gone,
+        // so they are covered by its row.
+        String lastDeleteAll = "(SELECT MAX(" + seq + ") FROM " + PetChangeEntry.TABLE_NAME
+                + " WHERE " + seq + " > ?1 AND " + op + " = " + PetChangeEntry.OP_DELETE_ALL + ")";
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(seq).append(", ")
+                .append(petId).append(" AS ").append(PetEntry._ID).append(", ")
+                .append(op);
+        for (int i = 1; i < PET_COLUMNS.length; i++) {
+            sql.append(", NULL AS ").append(PET_COLUMNS[i]);
+        }
+        sql.append(" FROM ").append(PetChangeEntry.TABLE_NAME)
+                .append(" WHERE ").append(seq).append(" = ").append(lastDeleteAll);
+
+        // Then one row per pet: deleted if it is gone now, inserted if it didn't exist before,
+        // updated otherwise. A left join, so purged pets are still reported.
+        sql.append(" UNION ALL SELECT MAX(c.").append(seq).append(") AS ").append(seq)
+                .append(", c.").append(petId).append(" AS ").append(PetEntry._ID)
+                .append(", CASE WHEN p.").append(PetEntry._ID).append(" IS NULL THEN ")
+                .append(PetChangeEntry.OP_DELETE)
+                .append(" WHEN MIN(c.").append(op).append(") = ").append(PetChangeEntry.OP_INSERT)
+                .append(" THEN ").append(PetChangeEntry.OP_INSERT)
+                .append(" ELSE ").append(PetChangeEntry.OP_UPDATE)
+                .append(" END AS ").append(op);
+        for (int i = 1; i < PET_COLUMNS.length; i++) {
+            sql.append(", p.").append(PET_COLUMNS[i]);
+        }
+        sql.append(" FROM ").append(PetChangeEntry.TABLE_NAME).append(" c LEFT JOIN ")
+                .append(PetEntry.TABLE_NAME).append(" p ON p.").append(PetEntry._ID)
+                .append(" = c.").append(petId).append(" AND ").append(PetDbHelper.liveRow("p"))
+                .append(" WHERE c.").append(seq).append(" > ?1 AND c.").append(op).append(" != ")
+                .append(PetChangeEntry.OP_DELETE_ALL)
+                .append(" AND c.").append(petId).append(" > IFNULL((SELECT ").append(petId)
+                .append(" FROM ").append(PetChangeEntry.TABLE_NAME).append(" WHERE ")
+                .append(seq).append(" = ").append(lastDeleteAll).append("), 0)")
+                .append(" GROUP BY c.").append(petId)
+                // Pets that came and went since then
+                .append(" HAVING p.").append(PetEntry._ID).append(" IS NOT NULL OR MIN(c.")
+                .append(op).append(") != ").append(PetChangeEntry.OP_INSERT)
+                .append(" ORDER BY ").append(seq);
+        return database.rawQuery(sql.toString(), new String[]{String.valueOf(since)});
+    }
+
+    /**
+     * Acknowledge the changes up to the sequence number of the given acknowledge URI, dropping
+     * them from the journal. Return the number of journal entries dropped.
+     */
+    private static int acknowledgeChanges(SQLiteDatabase database, Uri uri) {
+        long upto = parseSequence(uri, PetChangeEntry.QUERY_PARAMETER_UPTO);
+        int rowsDeleted;
+        database.beginTransaction();
+        try {
+            // Acknowledging numbers not handed out yet would hide the changes that get them
+            long last = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(seq), 0) FROM "
+                    + "sqlite_sequence WHERE name = '" + PetChangeEntry.TABLE_NAME + "'", null);
+            if (upto > last) {
+                throw new IllegalArgumentException("Cannot acknowledge changes after " + last
+                        + " with " + uri);
+            }
+            rowsDeleted = database.delete(PetChangeEntry.TABLE_NAME,
+                    PetChangeEntry.COLUMN_SEQUENCE + " <= ?", new String[]{String.valueOf(upto)});
+            database.execSQL("UPDATE " + PetDbHelper.META_TABLE_NAME + " SET value = MAX(value, ?)"
+                    + " WHERE key = '" + PetDbHelper.META_KEY_CHANGES_ACKNOWLEDGED + "'",
+                    new Object[]{upto});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Parse a sequence number query parameter, which is required.
+     */
+    private static long parseSequence(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        long sequence = value == null ? -1 : parseLong(value, -1);
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Invalid " + parameter + " for " + uri);
+        }
+        return sequence;
+    }
+
+    /**
+     * Return true if the pet with the given id exists and wasn't deleted.
+     */
+    private static boolean isLivePet(SQLiteDatabase database, long id) {
+        return DatabaseUtils.queryNumEntries(database, PetEntry.TABLE_NAME,
+                whereLive(PetEntry._ID + "=?"), new String[]{String.valueOf(id)}) != 0;
+    }
+
+    /**
+     * Parse a time query parameter, in milliseconds since the epoch, returning the given
+     * default if it is missing.
+     */
+    private static long parseTime(Uri uri, String parameter, long defaultValue) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return defaultValue;
+        }
+        long time = parseLong(value, -1);
+        if (time < 0) {
+            throw new IllegalArgumentException("Invalid time " + value + " for " + uri);
+        }
+        return time;
+    }
+
+    /**
+     * Turn free text typed by the user into an FTS query matching every word as a prefix,
+     * e.g. "gold ret" becomes "gold* ret*". Anything but letters and digits is dropped, so the
+     * user can't inject FTS operators. Return null if there are no words left.
+     */
+    private static String buildPrefixMatch(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && match.length() != 0) {
+                    match.append(' ');
+                }
+                match.append(c);
+                inWord = true;
+            } else if (inWord) {
+                match.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            match.append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * Parse an integer query parameter, returning the given default if it isn't a number.
+     */
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parse a long query parameter, returning the given default if it isn't a number.
+     */
+    private static long parseLong(String value, long defaultValue) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return insertPet(uri, contentValues);
+                Uri newUri = insertPet(uri, contentValues);
+                mMetrics.record(PetMetrics.INSERT, match - PETS, startNanos,
+                        newUri == null ? 0 : 1);
+                return newUri;
+            case PET_WEIGHTS:
+                int rowsInserted = insertWeights(uri, new ContentValues[]{contentValues});
+                mMetrics.record(PetMetrics.INSERT, match - PETS, startNanos, rowsInserted);
+                // Measurements aren't addressable one by one, the history is
+                return rowsInserted == 0 ? null : uri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -133,6 +1082,43 @@ public class PetProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertPet(Uri uri, ContentValues values) {
+        validateNewPet(values);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new pet with the given values, through the compiled statement unless
+        // the values carry extra columns
+        long id;
+        if (isFullRow(values)) {
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            id = mStatements.insert(values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    weight == null ? 0 : weight);
+        } else {
+            id = database.insert(PetEntry.TABLE_NAME, null, values);
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        PetChanges changes = new PetChanges();
+        changes.add(id);
+
+        // Notify all listeners that the data has changed for the new pet's content URI
+        notifyChange(changes);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet, throwing an
+     * {@link IllegalArgumentException} otherwise. Shared by the single row and bulk insert paths.
+     */
+    private static void validateNewPet(ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
         if (name == null) {
@@ -147,47 +1133,296 @@ public class PetProvider extends ContentProvider {
 
         // If the weight is provided, check that it's greater than or equal to 0 kg
         Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
+        if (weight != null && !PetEntry.isValidWeight(weight)) {
             throw new IllegalArgumentException("Pet requires valid weight");
         }
 
         // No need to check the breed, any value is valid (including null).
 
-        // Get writeable database
+        // The photo must name a file inside the photos directory
+        if (!PetEntry.isValidPhoto(values.getAsString(PetEntry.COLUMN_PET_PHOTO))) {
+            throw new IllegalArgumentException("Pet requires valid photo");
+        }
+
+        // A new pet can't be born deleted
+        if (values.containsKey(PetEntry.COLUMN_PET_DELETED_AT)) {
+            throw new IllegalArgumentException("Pet can't be inserted as deleted");
+        }
+    }
+
+    /**
+     * Insert many pets at once. All rows are validated up front and then written inside a single
+     * transaction using one compiled statement, so the whole batch costs one journal sync and one
+     * change notification instead of one per row. Return the number of rows inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match == PET_WEIGHTS) {
+            int rowsInserted = insertWeights(uri, valuesArray);
+            mMetrics.record(PetMetrics.BULK_INSERT, match - PETS, startNanos, rowsInserted);
+            return rowsInserted;
+        }
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Validate everything before touching the database, so a bad row can't leave
+        // half a batch behind.
+        for (ContentValues values : valuesArray) {
+            validateNewPet(values);
+        }
+
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetChanges changes = new PetChanges();
+        int rowsInserted = 0;
 
-        // Insert the new pet with the given values
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        database.beginTransaction();
+        PetStatements.Inserter inserter = mStatements.newInserter();
+        try {
+            for (ContentValues values : valuesArray) {
+                long id;
+                if (isFullRow(values)) {
+                    Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+                    id = inserter.insert(values.getAsString(PetEntry.COLUMN_PET_NAME),
+                            values.getAsString(PetEntry.COLUMN_PET_BREED),
+                            values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                            weight == null ? 0 : weight);
+                } else {
+                    // Rows carrying extra columns (for example an explicit _id) can't use the
+                    // compiled statement, fall back to the generic insert.
+                    id = database.insert(PetEntry.TABLE_NAME, null, values);
+                }
+
+                if (id == -1) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                } else {
+                    changes.add(id);
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            database.endTransaction();
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // One notification for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(changes);
+        }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        // Don't let a large batch leave a big log for readers to search through
+        if (rowsInserted >= CHECKPOINT_BATCH_SIZE && mDbHelper.usesExplicitCheckpoints()) {
+            mDbHelper.checkpoint();
+        }
+
+        mMetrics.record(PetMetrics.BULK_INSERT, match - PETS, startNanos, rowsInserted);
+        return rowsInserted;
+    }
+
+    /**
+     * Append weight measurements to the history of the pet of the given weights URI, in one
+     * transaction. Each value holds a weight and optionally a time, which defaults to now.
+     * Return the number of measurements added, 0 if the pet doesn't exist or was deleted.
+     */
+    private int insertWeights(Uri uri, ContentValues[] valuesArray) {
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        long now = System.currentTimeMillis();
+
+        // Validate everything before touching the database, like bulkInsert()
+        for (ContentValues values : valuesArray) {
+            for (String key : values.keySet()) {
+                if (!PetWeightEntry.COLUMN_WEIGHT.equals(key)
+                        && !PetWeightEntry.COLUMN_TIME.equals(key)) {
+                    throw new IllegalArgumentException("Unknown column " + key + " for " + uri);
+                }
+            }
+            Integer weight = values.getAsInteger(PetWeightEntry.COLUMN_WEIGHT);
+            if (weight == null || !PetEntry.isValidWeight(weight)) {
+                throw new IllegalArgumentException("Measurement requires valid weight");
+            }
+            Long time = values.getAsLong(PetWeightEntry.COLUMN_TIME);
+            if (values.containsKey(PetWeightEntry.COLUMN_TIME) && (time == null || time < 0)) {
+                throw new IllegalArgumentException("Measurement requires valid time");
+            }
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            if (isLivePet(database, petId)) {
+                for (ContentValues values : valuesArray) {
+                    Long time = values.getAsLong(PetWeightEntry.COLUMN_TIME);
+                    long id = mStatements.insertWeight(petId, time == null ? now : time,
+                            values.getAsInteger(PetWeightEntry.COLUMN_WEIGHT));
+                    if (id == -1) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                    } else {
+                        rowsInserted++;
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsInserted != 0) {
+            notifyWeightsChange(petId);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Return true if the given values only contain columns bound by the compiled insert and
+     * update statements of {@link PetStatements}.
+     */
+    private static boolean isFullRow(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!PetEntry.COLUMN_PET_NAME.equals(key)
+                    && !PetEntry.COLUMN_PET_BREED.equals(key)
+                    && !PetEntry.COLUMN_PET_GENDER.equals(key)
+                    && !PetEntry.COLUMN_PET_WEIGHT.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply a batch of operations inside one transaction. Either all operations are committed
+     * or none are, and observers are notified once after the batch instead of once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetChanges changes = new PetChanges();
+        ContentProviderResult[] results;
+
+        mBatchChanges.set(changes);
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mBatchChanges.remove();
+            if (!committed && !changes.isEmpty()) {
+                // Queries of the batch itself may have cached rows that were rolled back
+                invalidateCachedRows(changes);
+                mQueryCache.invalidateAll();
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            notifyChange(changes);
+        }
+        // A batch may touch any URI, so it isn't recorded under a match
+        mMetrics.record(PetMetrics.APPLY_BATCH, -1, startNanos, operations.size());
+        return results;
+    }
+
+    /**
+     * Notify all listeners that the given pets changed, unless a batch is being applied on this
+     * thread. In that case the changes are added to the batch, and {@link #applyBatch} sends one
+     * notification for all of them at the end.
+     * <p>
+     * Cached rows and query results are dropped here too: this runs once the write has
+     * committed, so a query started before the commit can't put its result back afterwards.
+     * Inside a batch the write hasn't committed yet, so they are only dropped with the batch's
+     * notification.
+     */
+    private void notifyChange(PetChanges changes) {
+        PetChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+            return;
+        }
+        invalidateCachedRows(changes);
+        mQueryCache.invalidateAll();
+        mMetrics.recordNotification();
+        getContext().getContentResolver().notifyChange(changes.toNotificationUri(), null);
+    }
+
+    /**
+     * Notify the listeners of the given pet's weight history that measurements were added.
+     * The pets themselves didn't change, so cached lists stay valid. Inside a batch, the pet
+     * is added to the batch's changes instead, and its history is notified through the pet's
+     * own URI once the batch has committed.
+     */
+    private void notifyWeightsChange(long petId) {
+        PetChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(petId);
+            return;
+        }
+        mMetrics.recordNotification();
+        getContext().getContentResolver().notifyChange(PetWeightEntry.buildWeightsUri(petId),
+                null);
+    }
+
+    /**
+     * Add the pets matched by a write through the given URI and selection to the given changes.
+     * If the selection matches many pets, record a change of the whole table instead of reading
+     * every id. Must run in the same transaction as the write.
+     */
+    private void collectChanges(SQLiteDatabase database, Uri uri, String selection,
+                                String[] selectionArgs, PetChanges changes) {
+        if (sUriMatcher.match(uri) == PET_ID) {
+            changes.add(ContentUris.parseId(uri));
+            return;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            changes.addAll();
+            return;
+        }
+
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[]{PetEntry._ID},
+                whereLive(selection), selectionArgs, null, null, null,
+                String.valueOf(PetChanges.MAX_NOTIFIED_IDS + 1));
+        try {
+            if (cursor.getCount() > PetChanges.MAX_NOTIFIED_IDS) {
+                changes.addAll();
+                return;
+            }
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        int rowsUpdated;
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mMetrics.record(PetMetrics.UPDATE, match - PETS, startNanos, rowsUpdated);
+        return rowsUpdated;
     }
 
     /**
@@ -219,13 +1454,24 @@ public class PetProvider extends ContentProvider {
         if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
             // Check that the weight is greater than or equal to 0 kg
             Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
+            if (weight != null && !PetEntry.isValidWeight(weight)) {
                 throw new IllegalArgumentException("Pet requires valid weight");
             }
         }
 
         // No need to check the breed, any value is valid (including null).
 
+        // If the {@link PetEntry#COLUMN_PET_PHOTO} key is present, check that it names a file
+        // inside the photos directory
+        if (!PetEntry.isValidPhoto(values.getAsString(PetEntry.COLUMN_PET_PHOTO))) {
+            throw new IllegalArgumentException("Pet requires valid photo");
+        }
+
+        // Pets are only deleted through delete()
+        if (values.containsKey(PetEntry.COLUMN_PET_DELETED_AT)) {
+            throw new IllegalArgumentException("Pets can't be deleted through an update");
+        }
+
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
@@ -234,54 +1480,207 @@ public class PetProvider extends ContentProvider {
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Perform the update on the database and get the number of rows affected, remembering
+        // which rows the update touched
+        PetChanges changes = new PetChanges();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            collectChanges(database, uri, selection, selectionArgs, changes);
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            if (sUriMatcher.match(uri) == PET_ID && values.size() == 4 && isFullRow(values)
+                    && weight != null) {
+                // Every column of a single pet, as saved by the editor: use the compiled
+                // statement instead of building the UPDATE from the values
+                rowsUpdated = mStatements.updateById(ContentUris.parseId(uri),
+                        values.getAsString(PetEntry.COLUMN_PET_NAME),
+                        values.getAsString(PetEntry.COLUMN_PET_BREED),
+                        values.getAsInteger(PetEntry.COLUMN_PET_GENDER), weight);
+            } else {
+                rowsUpdated = database.update(PetEntry.TABLE_NAME, values, whereLive(selection),
+                        selectionArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were updated, then notify all listeners that those rows changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
+            // A replaced photo leaves its file behind, the compactor removes it
+            if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+                mCompactor.schedule();
+            }
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Delete pets. Deleted pets are only marked with their deletion time and disappear from
+     * every query right away; {@link PetCompactor} purges them from the table later, in the
+     * background. Deleting every pet only moves the delete all watermark, so it takes the same
+     * time whatever the size of the table.
+     */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
+        // Track the number of rows that were deleted, and which ones
         int rowsDeleted;
+        PetChanges changes = new PetChanges();
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case PET_ID:
                 // Delete a single row given by the ID in the URI
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-
                 break;
+            case PET_CHANGES:
+                // Acknowledge journaled changes, no pet changes
+                rowsDeleted = acknowledgeChanges(database, uri);
+                mMetrics.record(PetMetrics.DELETE, match - PETS, startNanos, rowsDeleted);
+                return rowsDeleted;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        database.beginTransaction();
+        try {
+            collectChanges(database, uri, selection, selectionArgs, changes);
+            if (match == PET_ID) {
+                rowsDeleted = mStatements.deleteById(ContentUris.parseId(uri),
+                        System.currentTimeMillis());
+            } else if (TextUtils.isEmpty(selection)) {
+                rowsDeleted = deleteAllPets(database);
+            } else {
+                ContentValues tombstone = new ContentValues(1);
+                tombstone.put(PetEntry.COLUMN_PET_DELETED_AT, System.currentTimeMillis());
+                rowsDeleted = database.update(PetEntry.TABLE_NAME, tombstone,
+                        whereLive(selection), selectionArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were deleted, then notify all listeners that those rows changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
+            mCompactor.schedule();
         }
 
+        mMetrics.record(PetMetrics.DELETE, match - PETS, startNanos, rowsDeleted);
+
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete every pet by moving the delete all watermark up to the highest _id, and empty the
+     * statistics, which the triggers can't do row by row here. Return the number of pets that
+     * were deleted. Must run in a transaction.
+     */
+    private static int deleteAllPets(SQLiteDatabase database) {
+        int count = (int) DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                + PetStatsEntry.COLUMN_COUNT + "), 0) FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME, null);
+        // MAX(_id) is a single lookup at the end of the table
+        database.execSQL("UPDATE " + PetDbHelper.META_TABLE_NAME + " SET value = "
+                + "(SELECT IFNULL(MAX(" + PetEntry._ID + "), 0) FROM " + PetEntry.TABLE_NAME
+                + ") WHERE key = '" + PetDbHelper.META_KEY_DELETE_ALL_WATERMARK + "'");
+        database.delete(PetStatsEntry.GENDER_TABLE_NAME, null, null);
+        database.delete(PetStatsEntry.BREED_TABLE_NAME, null, null);
+        return count;
+    }
+
+    /**
+     * Drop the given changed pets from {@link #mRowCache}.
+     */
+    private void invalidateCachedRows(PetChanges changes) {
+        if (changes.isAll()) {
+            mRowCache.invalidateAll();
+            return;
+        }
+        for (int i = 0; i < changes.size(); i++) {
+            mRowCache.invalidate(changes.get(i));
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_ROW_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(PetContract.KEY_CACHE_HITS, mRowCache.hitCount());
+            stats.putInt(PetContract.KEY_CACHE_MISSES, mRowCache.missCount());
+            stats.putInt(PetContract.KEY_CACHE_SIZE, mRowCache.size());
+            stats.putInt(PetContract.KEY_CACHE_MAX_SIZE, mRowCache.maxSize());
+            return stats;
+        } else if (PetContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(PetContract.KEY_CACHE_HITS, mQueryCache.hitCount());
+            stats.putInt(PetContract.KEY_CACHE_MISSES, mQueryCache.missCount());
+            stats.putInt(PetContract.KEY_CACHE_SIZE, mQueryCache.size());
+            stats.putInt(PetContract.KEY_CACHE_MAX_SIZE, mQueryCache.maxSize());
+            stats.putInt(PetContract.KEY_CACHE_ENTRIES, mQueryCache.entryCount());
+            return stats;
+        } else if (PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            mSlowQueryLog.setThresholdMillis(arg == null ? -1 : parseLong(arg, -1));
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_SLOW_QUERY_THRESHOLD_MS,
+                    mSlowQueryLog.getThresholdMillis());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Print the provider metrics, for "adb shell dumpsys activity provider".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * Open the export URI for reading. The returned descriptor is the read end of a pipe; the
+     * table is encoded into the other end on a background thread while the caller reads, so an
+     * export of any size never has to fit in memory.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export is read only: " + uri);
+        }
+        return openPipeHelper(uri, getType(uri), null, getExportFormat(uri),
+                new PetExportWriter(mDbHelper));
+    }
+
+    /**
+     * Return the export format requested by the given export URI.
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || PetEntry.FORMAT_CSV.equals(format)) {
+            return PetEntry.FORMAT_CSV;
+        } else if (PetEntry.FORMAT_JSON.equals(format)) {
+            return PetEntry.FORMAT_JSON;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format + " for " + uri);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -290,6 +1689,24 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+            case PET_SUMMARY:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_METRICS:
+                return PetMetricsEntry.CONTENT_TYPE;
+            case PET_SLOW_QUERIES:
+                return PetSlowQueryEntry.CONTENT_TYPE;
+            case PET_WEIGHTS:
+                return PetWeightEntry.CONTENT_TYPE;
+            case PET_CHANGES:
+                return PetChangeEntry.CONTENT_TYPE;
+            case PET_EXPORT:
+                return PetEntry.FORMAT_JSON.equals(getExportFormat(uri))
+                        ? PetEntry.JSON_TYPE : PetEntry.CSV_TYPE;
+            case PET_STATS:
+            case PET_STATS_GENDER:
+            case PET_STATS_BREED:
+                return PetStatsEntry.CONTENT_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,307 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.TreeSet;
+
+/**
+ * Memory bounded LRU cache of whole query results, used by {@link PetProvider} to answer a
+ * repeated list query (same URI, projection, selection, arguments and sort order) without going
+ * to SQLite.
+ * <p>
+ * Results are stored as immutable snapshots of their values, shared by every cursor served from
+ * them. Any write drops the whole cache through {@link #invalidateAll}, which also bumps a
+ * generation number: a result read from the database is only cached if no write finished while
+ * it was being read, so a slow reader can't put a stale result back.
+ */
+final class PetQueryCache {
+
+    /** Rough size of an object header and reference, used to estimate the size of a snapshot */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    /**
+     * Immutable copy of a query result. Values are stored row after row in a single array.
+     */
+    private static final class Snapshot {
+        final String[] columns;
+        final Object[] values;
+        final int rowCount;
+        final int sizeInBytes;
+
+        Snapshot(String[] columns, Object[] values, int rowCount, int sizeInBytes) {
+            this.columns = columns;
+            this.values = values;
+            this.rowCount = rowCount;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+
+    private final LruCache<String, Snapshot> mSnapshots;
+
+    /** Incremented on every invalidation, guarded by this */
+    private long mGeneration;
+
+    PetQueryCache(int maxBytes) {
+        mSnapshots = new LruCache<String, Snapshot>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Snapshot snapshot) {
+                return key.length() * 2 + snapshot.sizeInBytes;
+            }
+        };
+    }
+
+    /**
+     * Build the key of a query. Query parameters are sorted so their order doesn't matter, and
+     * the notify parameter is left out since it doesn't change the rows.
+     */
+    static String buildKey(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.getPath());
+        for (String name : new TreeSet<>(uri.getQueryParameterNames())) {
+            if (PetEntry.QUERY_PARAMETER_NOTIFY.equals(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                key.append('&').append(name).append('=').append(value);
+            }
+        }
+        // Separate the parts with a character that can't appear in SQL text
+        key.append('\u0000');
+        if (projection != null) {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        key.append('\u0000');
+        if (selection != null) {
+            key.append(selection.trim());
+        }
+        key.append('\u0000');
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                key.append(arg).append('\u0001');
+            }
+        }
+        key.append('\u0000');
+        if (sortOrder != null) {
+            key.append(sortOrder.trim());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return a cursor over the cached result of the query with the given key, or null if it
+     * isn't cached.
+     */
+    Cursor query(String key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        return snapshot == null ? null : new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Return the current generation, to be passed to {@link #put} once the result has been read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copy every row of the given cursor and cache it under the given key, unless the cache was
+     * invalidated since {@link #getGeneration} returned the given generation, or the result
+     * alone would take more than a quarter of the cache. Return a cursor over the copy, as
+     * {@link #query} would, or null without copying anything if the result is too large to be
+     * cached whatever its values. The given cursor is left open.
+     */
+    Cursor put(String key, Cursor cursor, long generation) {
+        // The value array alone would be too large, so a copy would only cost memory
+        long minSize = OBJECT_OVERHEAD
+                + (long) cursor.getCount() * cursor.getColumnCount() * 4;
+        if (minSize > mSnapshots.maxSize() / 4) {
+            return null;
+        }
+        Snapshot snapshot = copy(cursor);
+        synchronized (this) {
+            if (generation == mGeneration && snapshot.sizeInBytes <= mSnapshots.maxSize() / 4) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSnapshots.evictAll();
+    }
+
+    int hitCount() {
+        return mSnapshots.hitCount();
+    }
+
+    int missCount() {
+        return mSnapshots.missCount();
+    }
+
+    int entryCount() {
+        return mSnapshots.snapshot().size();
+    }
+
+    /** Estimated memory used by the cached results, in bytes */
+    int size() {
+        return mSnapshots.size();
+    }
+
+    /** Memory budget of the cache, in bytes */
+    int maxSize() {
+        return mSnapshots.maxSize();
+    }
+
+    private static Snapshot copy(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        int columnCount = columns.length;
+        int rowCount = cursor.getCount();
+        Object[] values = new Object[rowCount * columnCount];
+        int size = OBJECT_OVERHEAD + values.length * 4;
+
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++, i++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(column);
+                        size += OBJECT_OVERHEAD;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(column);
+                        size += OBJECT_OVERHEAD;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(column);
+                        values[i] = blob;
+                        size += OBJECT_OVERHEAD + blob.length;
+                        break;
+                    default:
+                        String text = cursor.getString(column);
+                        values[i] = text;
+                        size += 2 * OBJECT_OVERHEAD + text.length() * 2;
+                        break;
+                }
+            }
+        }
+        return new Snapshot(columns, values, rowCount, size);
+    }
+
+    /**
+     * Read only cursor over a snapshot. The snapshot is never modified, so any number of these
+     * can share it.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mSnapshot.columns.length) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+            if (mPos < 0 || mPos >= mSnapshot.rowCount) {
+                throw new IllegalStateException("Cursor is not on a row");
+            }
+            return mSnapshot.values[mPos * mSnapshot.columns.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.rowCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.columns;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            if (value == null || value instanceof byte[]) {
+                return (byte[]) value;
+            }
+            return value.toString().getBytes();
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
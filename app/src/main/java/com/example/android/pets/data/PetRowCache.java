@@ -0,0 +1,192 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Bounded LRU cache of single pet rows keyed by _id, used by {@link PetProvider} to answer
+ * single pet queries without going to SQLite.
+ * <p>
+ * Writes invalidate entries through {@link #invalidate} and {@link #invalidateAll}. Every
+ * invalidation bumps a version number, and a row read from the database is only cached if no
+ * invalidation happened while it was being read, so a slow reader can't put a stale row back.
+ */
+final class PetRowCache {
+
+    /**
+     * Columns of a cached row, in the order they are stored. Queries asking for anything else
+     * can't be served from the cache.
+     */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    /**
+     * A decoded pet row. The id is the cache key, so it isn't stored again.
+     */
+    private static final class Row {
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+        final String photo;
+
+        Row(String name, String breed, int gender, int weight, String photo) {
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+            this.photo = photo;
+        }
+    }
+
+    private final LruCache<Long, Row> mRows;
+
+    /** Incremented on every invalidation, guarded by this */
+    private long mVersion;
+
+    PetRowCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Return true if every column of the given projection is one of {@link #COLUMNS}.
+     * A null projection means all columns.
+     */
+    static boolean canServe(String[] projection) {
+        return resolveColumns(projection) != null;
+    }
+
+    /**
+     * Return a cursor holding the given columns of the cached pet, or null if the pet isn't
+     * cached. The projection must pass {@link #canServe}.
+     */
+    Cursor query(long id, String[] projection) {
+        Row row = mRows.get(id);
+        if (row == null) {
+            return null;
+        }
+        return toCursor(id, row, projection);
+    }
+
+    /**
+     * Return the current version, to be passed to {@link #put} once the row has been read.
+     */
+    synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Cache the row the given cursor points at, which must hold all {@link #COLUMNS}, unless
+     * the cache was invalidated since {@link #getVersion} returned the given version. Return a
+     * cursor holding the given columns of that row, as {@link #query} would.
+     */
+    synchronized Cursor put(long id, Cursor cursor, long version, String[] projection) {
+        Row row = new Row(
+                cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT)),
+                cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO)));
+        if (version == mVersion) {
+            mRows.put(id, row);
+        }
+        return toCursor(id, row, projection);
+    }
+
+    /**
+     * Drop the given pet from the cache.
+     */
+    synchronized void invalidate(long id) {
+        mVersion++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drop every pet from the cache, for writes that don't say which rows they touched.
+     */
+    synchronized void invalidateAll() {
+        mVersion++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    int maxSize() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * Map each projected column to its position in {@link #COLUMNS}. Return null if a column
+     * isn't cached.
+     */
+    private static int[] resolveColumns(String[] projection) {
+        if (projection == null) {
+            return new int[]{0, 1, 2, 3, 4, 5};
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equals(projection[i])) {
+                    columns[i] = j;
+                    break;
+                }
+            }
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private static Cursor toCursor(long id, Row row, String[] projection) {
+        int[] columns = resolveColumns(projection);
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i]) {
+                case 0:
+                    values[i] = id;
+                    break;
+                case 1:
+                    values[i] = row.name;
+                    break;
+                case 2:
+                    values[i] = row.breed;
+                    break;
+                case 3:
+                    values[i] = row.gender;
+                    break;
+                case 4:
+                    values[i] = row.weight;
+                    break;
+                default:
+                    values[i] = row.photo;
+                    break;
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetSlowQueryEntry;
+
+/**
+ * Opt-in log of the queries of the pets table that took longer than a threshold, with their
+ * query plan, so missing indexes show up from real traffic.
+ * <p>
+ * Disabled until a threshold is set. The last {@link #CAPACITY} slow queries are kept in a ring
+ * buffer; older ones are overwritten.
+ */
+final class PetSlowQueryLog {
+
+    /** Number of slow queries kept */
+    private static final int CAPACITY = 32;
+
+    /**
+     * One slow query.
+     */
+    private static final class Entry {
+        final long time;
+        final long elapsedMicros;
+        final String sql;
+        final String args;
+        final String plan;
+
+        Entry(long time, long elapsedMicros, String sql, String args, String plan) {
+            this.time = time;
+            this.elapsedMicros = elapsedMicros;
+            this.sql = sql;
+            this.args = args;
+            this.plan = plan;
+        }
+    }
+
+    /** Threshold in nanoseconds, negative while the log is disabled */
+    private volatile long mThresholdNanos = -1;
+
+    //ring buffer, guarded by this
+    private final Entry[] mEntries = new Entry[CAPACITY];
+    private int mNext;
+    private int mCount;
+
+    boolean isEnabled() {
+        return mThresholdNanos >= 0;
+    }
+
+    /**
+     * Log queries taking at least the given number of milliseconds, or disable the log if it
+     * is negative. Entries already logged are kept.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        mThresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1000000;
+    }
+
+    long getThresholdMillis() {
+        long threshold = mThresholdNanos;
+        return threshold < 0 ? -1 : threshold / 1000000;
+    }
+
+    /**
+     * Log the given query if it took at least the threshold, asking SQLite how it ran it.
+     * The plan is only computed for slow queries, so fast ones cost a comparison.
+     */
+    void onQueryFinished(SQLiteDatabase database, String sql, String[] args, long elapsedNanos) {
+        long threshold = mThresholdNanos;
+        if (threshold < 0 || elapsedNanos < threshold) {
+            return;
+        }
+        String argList = args == null ? "" : TextUtils.join(", ", args);
+        String plan = explain(database, sql, args);
+        Log.w(PetProvider.LOG_TAG, "Slow query (" + elapsedNanos / 1000000 + " ms): " + sql
+                + " [" + argList + "] plan: " + plan);
+
+        Entry entry = new Entry(System.currentTimeMillis(), elapsedNanos / 1000, sql, argList,
+                plan);
+        synchronized (this) {
+            mEntries[mNext] = entry;
+            mNext = (mNext + 1) % CAPACITY;
+            mCount = Math.min(mCount + 1, CAPACITY);
+        }
+    }
+
+    /**
+     * Return the logged slow queries, most recent first, with the {@link PetSlowQueryEntry}
+     * columns.
+     */
+    synchronized Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                PetSlowQueryEntry.COLUMN_TIME,
+                PetSlowQueryEntry.COLUMN_ELAPSED_MICROS,
+                PetSlowQueryEntry.COLUMN_SQL,
+                PetSlowQueryEntry.COLUMN_ARGS,
+                PetSlowQueryEntry.COLUMN_PLAN}, mCount);
+        for (int i = 1; i <= mCount; i++) {
+            Entry entry = mEntries[(mNext - i + CAPACITY) % CAPACITY];
+            cursor.addRow(new Object[]{
+                    entry.time, entry.elapsedMicros, entry.sql, entry.args, entry.plan});
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the EXPLAIN QUERY PLAN of the given query, one step per line.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detailColumnIndex = cursor.getColumnIndex("detail");
+                if (detailColumnIndex == -1) {
+                    detailColumnIndex = cursor.getColumnCount() - 1;
+                }
+                while (cursor.moveToNext()) {
+                    if (plan.length() != 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detailColumnIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            // The log is only a diagnostic, it must never fail the query it describes
+            plan.append("unavailable: ").append(e.getMessage());
+        }
+        return plan.toString();
+    }
+}
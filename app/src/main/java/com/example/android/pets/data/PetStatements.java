@@ -0,0 +1,206 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compiled statements for the common writes of {@link PetProvider}: inserting a full pet row,
+ * updating every column of a pet by _id, deleting a pet by _id and appending a weight
+ * measurement. Values are bound directly
+ * from primitives, so these writes neither build SQL nor go through {@link
+ * android.content.ContentValues} maps.
+ * <p>
+ * A compiled statement can only be used by one thread at a time, so each shape keeps a small
+ * pool: a write takes a statement out of the pool (compiling a new one if it is empty) and puts
+ * it back when done. No lock is held while a statement executes, so a thread waiting for the
+ * database inside a transaction can never wait for another thread's statement.
+ * <p>
+ * Like {@link android.database.sqlite.SQLiteDatabase#insert}, the inserts log a constraint
+ * violation and return -1 instead of throwing.
+ */
+final class PetStatements {
+
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + " = ?, "
+            + PetEntry.COLUMN_PET_BREED + " = ?, "
+            + PetEntry.COLUMN_PET_GENDER + " = ?, "
+            + PetEntry.COLUMN_PET_WEIGHT + " = ? WHERE " + PetEntry._ID + " = ? AND "
+            + PetDbHelper.SELECTION_LIVE;
+
+    //deleting only marks the pet, see PetProvider#delete
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_DELETED_AT + " = ? WHERE " + PetEntry._ID + " = ? AND "
+            + PetDbHelper.SELECTION_LIVE;
+
+    private static final String SQL_INSERT_WEIGHT = "INSERT INTO " + PetWeightEntry.TABLE_NAME
+            + " (" + PetWeightEntry.COLUMN_PET_ID + ", "
+            + PetWeightEntry.COLUMN_TIME + ", "
+            + PetWeightEntry.COLUMN_WEIGHT + ") VALUES (?, ?, ?)";
+
+    /** Statements kept per shape; more can be compiled under contention, but aren't kept */
+    private static final int MAX_POOLED = 4;
+
+    /**
+     * Idle compiled statements for one SQL shape.
+     */
+    private final class Pool {
+        private final String mSql;
+        private final ConcurrentLinkedQueue<SQLiteStatement> mIdle = new ConcurrentLinkedQueue<>();
+
+        Pool(String sql) {
+            mSql = sql;
+        }
+
+        SQLiteStatement acquire() {
+            SQLiteStatement statement = mIdle.poll();
+            if (statement == null) {
+                statement = mDbHelper.getWritableDatabase().compileStatement(mSql);
+            }
+            return statement;
+        }
+
+        void release(SQLiteStatement statement) {
+            statement.clearBindings();
+            if (mIdle.size() < MAX_POOLED) {
+                mIdle.offer(statement);
+            } else {
+                statement.close();
+            }
+        }
+    }
+
+    private final PetDbHelper mDbHelper;
+    private final Pool mInsert = new Pool(SQL_INSERT);
+    private final Pool mUpdateById = new Pool(SQL_UPDATE_BY_ID);
+    private final Pool mDeleteById = new Pool(SQL_DELETE_BY_ID);
+    private final Pool mInsertWeight = new Pool(SQL_INSERT_WEIGHT);
+
+    PetStatements(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Insert a pet and return its _id, or -1 if it violates a constraint.
+     */
+    long insert(String name, String breed, int gender, int weight) {
+        SQLiteStatement statement = mInsert.acquire();
+        try {
+            bindPet(statement, name, breed, gender, weight);
+            return executeInsert(statement);
+        } finally {
+            mInsert.release(statement);
+        }
+    }
+
+    /**
+     * Insert pets with a single statement, for a batch running in a transaction. The returned
+     * inserter must be closed once the batch is done.
+     */
+    Inserter newInserter() {
+        return new Inserter(mInsert.acquire());
+    }
+
+    /**
+     * Set every column of the given pet, and return the number of rows updated.
+     */
+    int updateById(long id, String name, String breed, int gender, int weight) {
+        SQLiteStatement statement = mUpdateById.acquire();
+        try {
+            bindPet(statement, name, breed, gender, weight);
+            statement.bindLong(5, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mUpdateById.release(statement);
+        }
+    }
+
+    /**
+     * Mark the given pet as deleted at the given time, and return the number of pets deleted.
+     */
+    int deleteById(long id, long deletedAt) {
+        SQLiteStatement statement = mDeleteById.acquire();
+        try {
+            statement.bindLong(1, deletedAt);
+            statement.bindLong(2, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mDeleteById.release(statement);
+        }
+    }
+
+    /**
+     * Append a weight measurement of the given pet, and return its _id, or -1 if it violates a
+     * constraint.
+     */
+    long insertWeight(long petId, long time, int weight) {
+        SQLiteStatement statement = mInsertWeight.acquire();
+        try {
+            statement.bindLong(1, petId);
+            statement.bindLong(2, time);
+            statement.bindLong(3, weight);
+            return executeInsert(statement);
+        } finally {
+            mInsertWeight.release(statement);
+        }
+    }
+
+    /**
+     * Run the given insert statement and return the new row's _id, or -1 if the row violates
+     * a constraint, as {@link android.database.sqlite.SQLiteDatabase#insert} would.
+     */
+    private static long executeInsert(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.e(PetProvider.LOG_TAG, "Error inserting with " + statement, e);
+            return -1;
+        }
+    }
+
+    private static void bindPet(SQLiteStatement statement, String name, String breed,
+                                int gender, int weight) {
+        statement.bindString(1, name);
+        if (breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+    }
+
+    /**
+     * Insert statement held for the length of a batch.
+     */
+    final class Inserter {
+        private final SQLiteStatement mStatement;
+
+        private Inserter(SQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+        /**
+         * Insert a pet and return its _id, or -1 if it violates a constraint.
+         */
+        long insert(String name, String breed, int gender, int weight) {
+            bindPet(mStatement, name, breed, gender, weight);
+            return executeInsert(mStatement);
+        }
+
+        void close() {
+            mInsert.release(mStatement);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs writes to the {@link PetProvider} off the main thread, one at a time, in the order they
+ * were submitted.
+ * <p>
+ * Writes to the same pet that are still waiting in the queue are coalesced: a second update
+ * is merged into the pending one, and a delete replaces a pending update. Callbacks of all the
+ * coalesced writes are called with the result of the write that actually ran.
+ */
+public final class PetWriter {
+
+    /**
+     * Told about the result of a write, on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param rowsAffected number of rows inserted, updated or deleted; 0 if the write failed
+         * @param newUri       for an insert, the URI of the new pet, otherwise null
+         */
+        void onWriteComplete(int rowsAffected, Uri newUri);
+    }
+
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    private static PetWriter sInstance;
+
+    /**
+     * Return the writer shared by the whole app.
+     */
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+
+    /**
+     * A write waiting in the queue.
+     */
+    private static class Write {
+        final Uri uri;
+        int type;
+        ContentValues values;
+        final ArrayList<Callback> callbacks = new ArrayList<>();
+
+        Write(int type, Uri uri, ContentValues values, Callback callback) {
+            this.type = type;
+            this.uri = uri;
+            this.values = values;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //queued updates and deletes by target URI, guarded by itself
+    private final HashMap<Uri, Write> mPending = new HashMap<>();
+
+    private PetWriter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Insert a pet through the given URI.
+     */
+    public void insert(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(INSERT, uri, new ContentValues(values), callback));
+    }
+
+    /**
+     * Update the pet with the given URI.
+     */
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        synchronized (mPending) {
+            Write pending = mPending.get(uri);
+            if (pending != null && pending.type == UPDATE) {
+                // Later values win
+                pending.values.putAll(values);
+                addCallback(pending, callback);
+                return;
+            }
+        }
+        enqueue(new Write(UPDATE, uri, new ContentValues(values), callback));
+    }
+
+    /**
+     * Delete the pet with the given URI, or every pet for
+     * {@link PetContract.PetEntry#CONTENT_URI}.
+     */
+    public void delete(Uri uri, Callback callback) {
+        synchronized (mPending) {
+            Write pending = mPending.get(uri);
+            if (pending != null) {
+                // The pet is going away, so there's no point in updating it first
+                pending.type = DELETE;
+                pending.values = null;
+                addCallback(pending, callback);
+                return;
+            }
+        }
+        enqueue(new Write(DELETE, uri, null, callback));
+    }
+
+    private static void addCallback(Write write, Callback callback) {
+        if (callback != null) {
+            write.callbacks.add(callback);
+        }
+    }
+
+    private void enqueue(final Write write) {
+        if (write.type != INSERT) {
+            synchronized (mPending) {
+                mPending.put(write.uri, write);
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Once running, the write can't be coalesced with newer ones anymore
+                if (write.type != INSERT) {
+                    synchronized (mPending) {
+                        if (mPending.get(write.uri) == write) {
+                            mPending.remove(write.uri);
+                        }
+                    }
+                }
+                perform(write);
+            }
+        });
+    }
+
+    private void perform(final Write write) {
+        int rowsAffected = 0;
+        Uri newUri = null;
+        try {
+            switch (write.type) {
+                case INSERT:
+                    newUri = mResolver.insert(write.uri, write.values);
+                    rowsAffected = newUri == null ? 0 : 1;
+                    break;
+                case UPDATE:
+                    rowsAffected = mResolver.update(write.uri, write.values, null, null);
+                    break;
+                default:
+                    rowsAffected = mResolver.delete(write.uri, null, null);
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // Rejected by the provider's validation, reported as a failed write
+            Log.e(LOG_TAG, "Write to " + write.uri + " failed", e);
+        }
+
+        final int result = rowsAffected;
+        final Uri resultUri = newUri;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : write.callbacks) {
+                    callback.onWriteComplete(result, resultUri);
+                }
+            }
+        });
+    }
+}